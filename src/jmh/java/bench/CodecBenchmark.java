@@ -0,0 +1,164 @@
+package bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-field costs of the import: created_at parsing and hashtag normalization
+ * Scores are nanoseconds per value. The legacy* benchmarks are the code the import ran before TweetCodec, copied
+ * here as the baseline of the same values.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class CodecBenchmark {
+    private static final int VALUES = 1024;
+
+    private byte[][] createdAt;
+    private String[] createdAtText;
+    private String[] hashtags;
+    private byte[][] hashtagBytes;
+    private Object codec;
+
+    @Setup
+    public void setup() {
+        List<byte[]> times = SampleTweets.createdAt(VALUES);
+        createdAt = times.toArray(new byte[0][]);
+        createdAtText = new String[VALUES];
+        for (int i = 0; i < VALUES; i++) {
+            createdAtText[i] = new String(createdAt[i], StandardCharsets.UTF_8);
+        }
+        List<String> tags = SampleTweets.hashtags(VALUES);
+        hashtags = tags.toArray(new String[0]);
+        hashtagBytes = new byte[VALUES][];
+        for (int i = 0; i < VALUES; i++) {
+            hashtagBytes[i] = hashtags[i].getBytes(StandardCharsets.UTF_8);
+        }
+        codec = Ingest.newCodec();
+    }
+
+    /**
+     * TweetCodec.parseCreatedAt, the replacement of convertStringTimeToDate
+     */
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void parseCreatedAt(Blackhole bh) throws Throwable {
+        for (byte[] value : createdAt) {
+            bh.consume((long) Ingest.PARSE_CREATED_AT.invokeExact(value, 0, value.length));
+        }
+    }
+
+    /**
+     * Former Main.convertStringTimeToDate on the created_at String: split, rebuild and parse with a new
+     * SimpleDateFormat per value
+     */
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void legacyCreatedAt(Blackhole bh) {
+        for (String value : createdAtText) {
+            bh.consume(convertStringTimeToDate(value));
+        }
+    }
+
+    /**
+     * Former normalization of every occurrence: Normalizer then a regular expression removing the marks
+     */
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void legacyHashtag(Blackhole bh) {
+        for (String hashtag : hashtags) {
+            String normalized = Normalizer.normalize(hashtag, Normalizer.Form.NFD);
+            bh.consume(normalized.replaceAll("\\p{M}", ""));
+        }
+    }
+
+    /**
+     * Normalization of every occurrence, as done before the codec memoized it
+     */
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void normalizeHashtag(Blackhole bh) throws Throwable {
+        for (String hashtag : hashtags) {
+            bh.consume((String) Ingest.NORMALIZE_HASHTAG.invokeExact(hashtag));
+        }
+    }
+
+    /**
+     * Memoized normalization from raw bytes, as done by TweetDecoder
+     */
+    @Benchmark
+    @OperationsPerInvocation(VALUES)
+    public void codecHashtag(Blackhole bh) throws Throwable {
+        for (byte[] hashtag : hashtagBytes) {
+            bh.consume((String) Ingest.CODEC_HASHTAG.invokeExact(codec, hashtag, 0, hashtag.length));
+        }
+    }
+
+    private static Date convertStringTimeToDate(String date) {
+        String[] splits = date.split(" ");
+        String dateFormat = "";
+        // Year
+        dateFormat += splits[splits.length - 1];
+        dateFormat += "-";
+        // Month
+        String monthStr = splits[splits.length - 5];
+        switch (monthStr) {
+            case "Jan": dateFormat += "01";
+                break;
+            case "Feb": dateFormat += "02";
+                break;
+            case "Mar": dateFormat += "03";
+                break;
+            case "Apr": dateFormat += "04";
+                break;
+            case "May": dateFormat += "05";
+                break;
+            case "Jun": dateFormat += "06";
+                break;
+            case "Jul": dateFormat += "07";
+                break;
+            case "Aug": dateFormat += "08";
+                break;
+            case "Sep": dateFormat += "09";
+                break;
+            case "Oct": dateFormat += "10";
+                break;
+            case "Nov": dateFormat += "11";
+                break;
+            case "Dec": dateFormat += "12";
+                break;
+        }
+        dateFormat += "-";
+        // Date
+        dateFormat += splits[splits.length - 4];
+        dateFormat += " ";
+        // Time
+        dateFormat += splits[splits.length - 3];
+        SimpleDateFormat dt = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
+        try {
+            return dt.parse(dateFormat);
+        } catch (java.text.ParseException e) {
+            return new Date();
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import org.json.simple.parser.JSONParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding of one tweet line: TweetDecoder on raw bytes against the json-simple tree it replaced
+ * Scores are microseconds per line.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class DecoderBenchmark {
+    private static final int LINES = 2000;
+
+    private byte[][] lines;
+    private String[] strings;
+    private Object decoder;
+    private Object record;
+
+    @Setup
+    public void setup() {
+        List<byte[]> sample = SampleTweets.lines(LINES);
+        lines = sample.toArray(new byte[0][]);
+        strings = new String[LINES];
+        for (int i = 0; i < LINES; i++) {
+            strings[i] = new String(lines[i], StandardCharsets.UTF_8);
+        }
+        decoder = Ingest.newDecoder();
+        record = Ingest.newRecord();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void tweetDecoder(Blackhole bh) throws Throwable {
+        for (byte[] line : lines) {
+            Ingest.DECODE.invokeExact(decoder, line, 0, line.length, record);
+            bh.consume(record);
+        }
+    }
+
+    /**
+     * Baseline: String line parsed to a JSONObject tree, as importDataFromJson did before TweetDecoder
+     */
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public void jsonSimple(Blackhole bh) throws Exception {
+        JSONParser parser = new JSONParser();
+        for (String line : strings) {
+            bh.consume(parser.parse(line));
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package bench;
+
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.db.ODatabaseType;
+import com.orientechnologies.orient.core.db.OrientDB;
+import com.orientechnologies.orient.core.db.OrientDBConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Ingest time, storage size and hashtag query latency of every HashtagStorage, on the same sample
+ *      importSample:   handleEachTweet for every line of the sample into a new in-memory database with the KEYS
+ *                      profile and the schema of the storage, milliseconds per sample of ImportBenchmark.TWEETS lines
+ *      tweetIds:       HashtagStorage.tweetIds of one hashtag of the sample (each in turn), on the sample loaded into
+ *                      a plocal database, whose size on disk without the WAL is printed by the setup
+ * The setup of tweetIds fails if the tweets found for all hashtags differ from those of VERTEX, the original model.
+ * The aggregate counters and hashtag co-occurrence are off, they cost the same in both modes.
+ * NOTE: embedded OrientDB 3.0 needs Nashorn, run the benchmarks on Java 11
+ */
+@Fork(1)
+public class HashtagStorageBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Sample {
+        @Param({"500"})
+        public int batchSize;
+
+        @Param({"VERTEX", "EMBEDDED"})
+        public String hashtagStorage;
+
+        Object storage;
+        Object profile;
+        List<List<Object>> batches;
+        List<String> hashtags;
+
+        @Setup(Level.Trial)
+        public void decode() throws Throwable {
+            Ingest.SET_AGGREGATE_COUNTERS.invokeExact(false);
+            Ingest.SET_HASHTAG_COOCCURRENCE.invokeExact(false);
+            storage = Ingest.hashtagStorage(hashtagStorage);
+            profile = Ingest.indexProfile("KEYS");
+            Object decoder = Ingest.newDecoder();
+            Set<String> distinct = new LinkedHashSet<>();
+            batches = new ArrayList<>();
+            List<Object> batch = new ArrayList<>();
+            for (byte[] line : SampleTweets.lines(ImportBenchmark.TWEETS)) {
+                Object record = Ingest.newRecord();
+                Ingest.DECODE.invokeExact(decoder, line, 0, line.length, record);
+                for (Object hashtag : (List<?>) Ingest.GET_HASHTAGS.invokeExact(record)) {
+                    distinct.add((String) hashtag);
+                }
+                batch.add(record);
+                if (batch.size() == batchSize) {
+                    batches.add(batch);
+                    batch = new ArrayList<>();
+                }
+            }
+            if (!batch.isEmpty()) {
+                batches.add(batch);
+            }
+            hashtags = new ArrayList<>(distinct);
+        }
+
+        /**
+         * Create the schema of storage in an empty database
+         */
+        void prepare(ODatabaseSession db, Object storage) throws Throwable {
+            Ingest.SET_HASHTAG_STORAGE.invokeExact(storage);
+            Ingest.CLEAR_CACHES.invokeExact();
+            Ingest.CREATE_DATABASE.invokeExact(db, profile);
+        }
+
+        void importAll(ODatabaseSession db) throws Throwable {
+            for (List<Object> batch : batches) {
+                Ingest.IMPORT_BATCH.invokeExact(db, (List) batch);
+            }
+        }
+
+        /**
+         * @return number of tweets found by storage for all hashtags of the sample
+         */
+        long references(ODatabaseSession db, Object storage) throws Throwable {
+            long references = 0;
+            for (String hashtag : hashtags) {
+                references += ((List<?>) Ingest.TWEET_IDS.invokeExact(storage, db, hashtag)).size();
+            }
+            return references;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class EmptyDatabase {
+        private OrientDB orient;
+        private ODatabaseSession db;
+        private int round;
+
+        @Setup(Level.Trial)
+        public void open() {
+            orient = new OrientDB("embedded:", OrientDBConfig.defaultConfig());
+        }
+
+        @Setup(Level.Invocation)
+        public void create(Sample sample) throws Throwable {
+            String name = "bench" + round;
+            orient.create(name, ODatabaseType.MEMORY);
+            db = orient.open(name, "admin", "admin");
+            sample.prepare(db, sample.storage);
+        }
+
+        @TearDown(Level.Invocation)
+        public void drop() {
+            db.close();
+            orient.drop("bench" + round++);
+        }
+
+        @TearDown(Level.Trial)
+        public void close() {
+            orient.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class LoadedDatabase {
+        private Path dir;
+        private OrientDB orient;
+        private ODatabaseSession db;
+        private int next;
+
+        @Setup(Level.Trial)
+        public void load(Sample sample) throws Throwable {
+            dir = Files.createTempDirectory("yas-hashtags");
+            orient = new OrientDB("embedded:" + dir, OrientDBConfig.defaultConfig());
+            orient.create("reference", ODatabaseType.MEMORY);
+            long expected;
+            try (ODatabaseSession reference = orient.open("reference", "admin", "admin")) {
+                Object vertex = Ingest.hashtagStorage("VERTEX");
+                sample.prepare(reference, vertex);
+                sample.importAll(reference);
+                expected = sample.references(reference, vertex);
+            }
+            orient.drop("reference");
+            orient.create("bench", ODatabaseType.PLOCAL);
+            try (ODatabaseSession loaded = orient.open("bench", "admin", "admin")) {
+                sample.prepare(loaded, sample.storage);
+                sample.importAll(loaded);
+            }
+            orient.close();
+            System.out.println("# " + sample.hashtagStorage + " size on disk: " + size(dir) / 1024 + " KB");
+
+            orient = new OrientDB("embedded:" + dir, OrientDBConfig.defaultConfig());
+            db = orient.open("bench", "admin", "admin");
+            long references = sample.references(db, sample.storage);
+            if (references != expected) {
+                throw new IllegalStateException(sample.hashtagStorage + " finds " + references
+                        + " tweet references for the hashtags of the sample, VERTEX " + expected);
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void delete() throws IOException {
+            db.close();
+            orient.close();
+            try (Stream<Path> files = Files.walk(dir)) {
+                files.sorted(Comparator.reverseOrder()).forEach(f -> f.toFile().delete());
+            }
+        }
+
+        private static long size(Path dir) throws IOException {
+            try (Stream<Path> files = Files.walk(dir)) {
+                return files.filter(Files::isRegularFile).filter(f -> !f.getFileName().toString().endsWith(".wal"))
+                        .mapToLong(f -> f.toFile().length()).sum();
+            }
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 3)
+    @Measurement(iterations = 10)
+    public ODatabaseSession importSample(Sample sample, EmptyDatabase empty) throws Throwable {
+        sample.importAll(empty.db);
+        return empty.db;
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 1)
+    @Measurement(iterations = 5, time = 1)
+    public Object tweetIds(Sample sample, LoadedDatabase loaded) throws Throwable {
+        String hashtag = sample.hashtags.get(loaded.next++ % sample.hashtags.size());
+        return (List<?>) Ingest.TWEET_IDS.invokeExact(sample.storage, loaded.db, hashtag);
+    }
+}
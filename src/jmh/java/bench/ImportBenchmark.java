@@ -0,0 +1,106 @@
+package bench;
+
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.db.ODatabaseType;
+import com.orientechnologies.orient.core.db.OrientDB;
+import com.orientechnologies.orient.core.db.OrientDBConfig;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full write path: handleEachTweet for every line of the sample through Main.importBatch, into an in-memory database
+ * Every invocation starts from a new empty database with the schema of given index profile, decoding is done in
+ * setup, so the score is the time to write the whole sample (milliseconds per sample of TWEETS lines), plus the build
+ * of the deferred indexes for DEFERRED.
+ * The aggregate counters and hashtag co-occurrence are off: createDataBase does not create their schema, and their
+ * static state would otherwise carry over from one invocation to the next.
+ * NOTE: embedded OrientDB 3.0 needs Nashorn, run the benchmarks on Java 11
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+@State(Scope.Thread)
+public class ImportBenchmark {
+    static final int TWEETS = 5000;
+
+    @Param({"500"})
+    public int batchSize;
+
+    @Param({"ALL", "SELECTIVE", "KEYS", "DEFERRED"})
+    public String indexProfile;
+
+    private Object profile;
+    private OrientDB orient;
+    private List<List<Object>> batches;
+    private ODatabaseSession db;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void decode() throws Throwable {
+        Ingest.SET_AGGREGATE_COUNTERS.invokeExact(false);
+        Ingest.SET_HASHTAG_COOCCURRENCE.invokeExact(false);
+        profile = Ingest.indexProfile(indexProfile);
+        orient = new OrientDB("embedded:", OrientDBConfig.defaultConfig());
+        Object decoder = Ingest.newDecoder();
+        batches = new ArrayList<>();
+        List<Object> batch = new ArrayList<>();
+        for (byte[] line : SampleTweets.lines(TWEETS)) {
+            Object record = Ingest.newRecord();
+            Ingest.DECODE.invokeExact(decoder, line, 0, line.length, record);
+            batch.add(record);
+            if (batch.size() == batchSize) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+            }
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void createDatabase() throws Throwable {
+        String name = "bench" + round;
+        orient.create(name, ODatabaseType.MEMORY);
+        db = orient.open(name, "admin", "admin");
+        Ingest.CLEAR_CACHES.invokeExact();
+        Ingest.CREATE_DATABASE.invokeExact(db, profile);
+    }
+
+    @Benchmark
+    public ODatabaseSession importSample() throws Throwable {
+        for (List<Object> batch : batches) {
+            Ingest.IMPORT_BATCH.invokeExact(db, (List) batch);
+        }
+        Ingest.BUILD_DEFERRED.invokeExact(profile, db);
+        return db;
+    }
+
+    @TearDown(Level.Invocation)
+    public void dropDatabase() {
+        db.close();
+        orient.drop("bench" + round++);
+    }
+
+    @TearDown(Level.Trial)
+    public void close() {
+        orient.close();
+    }
+}
@@ -0,0 +1,169 @@
+package bench;
+
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.util.List;
+
+/**
+ * Handles to the importer classes for the benchmarks
+ * JMH refuses benchmark classes in the default package, and a class in a named package cannot refer to the
+ * default package classes of the importer (Main, TweetCodec, TweetDecoder, TweetRecord, ...) by name.
+ * They are reached through method handles instead: static final handles are constants for the JIT, so a call costs
+ * the same as a direct call once the benchmark is compiled.
+ */
+final class Ingest {
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // long TweetCodec.parseCreatedAt(byte[], int, int)
+    static final MethodHandle PARSE_CREATED_AT = method("TweetCodec", "parseCreatedAt", byte[].class, int.class, int.class);
+    // String TweetCodec.normalizeHashtag(String)
+    static final MethodHandle NORMALIZE_HASHTAG = method("TweetCodec", "normalizeHashtag", String.class);
+    // String codec.hashtag(byte[], int, int)
+    static final MethodHandle CODEC_HASHTAG = method("TweetCodec", "hashtag", byte[].class, int.class, int.class);
+    // void decoder.decode(byte[], int, int, TweetRecord)
+    static final MethodHandle DECODE = method("TweetDecoder", "decode", byte[].class, int.class, int.class, type("TweetRecord"));
+    // void Main.createDataBase(ODatabaseSession, IndexProfile)
+    static final MethodHandle CREATE_DATABASE = method("Main", "createDataBase", ODatabaseSession.class, type("IndexProfile"));
+    // void profile.buildDeferred(ODatabaseSession)
+    static final MethodHandle BUILD_DEFERRED = method("IndexProfile", "buildDeferred", ODatabaseSession.class);
+    // void Main.importBatch(ODatabaseSession, List<TweetRecord>)
+    static final MethodHandle IMPORT_BATCH = method("Main", "importBatch", ODatabaseSession.class, List.class);
+    // void Main.clearCaches()
+    static final MethodHandle CLEAR_CACHES = method("Main", "clearCaches");
+    // Main.aggregateCounters = boolean
+    static final MethodHandle SET_AGGREGATE_COUNTERS = setter("Main", "aggregateCounters");
+    // Main.hashtagCooccurrence = boolean
+    static final MethodHandle SET_HASHTAG_COOCCURRENCE = setter("Main", "hashtagCooccurrence");
+    // Main.hashtagStorage = HashtagStorage
+    static final MethodHandle SET_HASHTAG_STORAGE = setter("Main", "hashtagStorage");
+    // List<Long> storage.tweetIds(ODatabaseSession, String)
+    static final MethodHandle TWEET_IDS = method("HashtagStorage", "tweetIds", ODatabaseSession.class, String.class);
+    // List<String> record.hashtags
+    static final MethodHandle GET_HASHTAGS = getter("TweetRecord", "hashtags");
+
+    private static final MethodHandle NEW_CODEC = constructor("TweetCodec");
+    private static final MethodHandle NEW_DECODER = constructor("TweetDecoder");
+    private static final MethodHandle NEW_RECORD = constructor("TweetRecord");
+
+    private Ingest() {
+    }
+
+    private static Class<?> type(String name) {
+        try {
+            return Class.forName(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return handle of given method with every importer class in its type erased to Object
+     */
+    private static MethodHandle method(String className, String name, Class<?>... parameterTypes) {
+        try {
+            Method method = type(className).getDeclaredMethod(name, parameterTypes);
+            method.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflect(method);
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return handle setting given static field, an importer class as its type erased to Object
+     */
+    private static MethodHandle setter(String className, String name) {
+        try {
+            Field field = type(className).getDeclaredField(name);
+            field.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectSetter(field);
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return handle reading given instance field, its class erased to Object
+     */
+    private static MethodHandle getter(String className, String name) {
+        try {
+            Field field = type(className).getDeclaredField(name);
+            field.setAccessible(true);
+            MethodHandle handle = LOOKUP.unreflectGetter(field);
+            return handle.asType(erase(handle.type()));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodHandle constructor(String className) {
+        try {
+            Constructor<?> constructor = type(className).getDeclaredConstructor();
+            constructor.setAccessible(true);
+            return LOOKUP.unreflectConstructor(constructor).asType(MethodType.methodType(Object.class));
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static MethodType erase(MethodType type) {
+        MethodType erased = type;
+        for (int i = 0; i < type.parameterCount(); i++) {
+            if (type.parameterType(i).getPackageName().isEmpty() && !type.parameterType(i).isPrimitive()
+                    && !type.parameterType(i).isArray()) {
+                erased = erased.changeParameterType(i, Object.class);
+            }
+        }
+        return erased;
+    }
+
+    static Object newCodec() {
+        try {
+            return NEW_CODEC.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object newDecoder() {
+        try {
+            return NEW_DECODER.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static Object newRecord() {
+        try {
+            return NEW_RECORD.invokeExact();
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @param name ALL, SELECTIVE, KEYS or DEFERRED
+     * @return IndexProfile constant
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object indexProfile(String name) {
+        return Enum.valueOf((Class) type("IndexProfile"), name);
+    }
+
+    /**
+     * @param name VERTEX or EMBEDDED
+     * @return HashtagStorage constant
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Object hashtagStorage(String name) {
+        return Enum.valueOf((Class) type("HashtagStorage"), name);
+    }
+}
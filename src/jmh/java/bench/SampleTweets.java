@@ -0,0 +1,142 @@
+package bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Fixed sample of tweet lines in the format of the Kaggle Eurovision data set, the same for every run (fixed seed)
+ * Mix of the sample:
+ *      RETWEET_RATIO:  tweets carrying a "retweeted_status" object, the original is often already known
+ *      REPLY_RATIO:    tweets with "in_reply_to_status_id" pointing at an earlier tweet
+ *      QUOTE_RATIO:    tweets with "quoted_status_id" pointing at an earlier tweet
+ *      hashtags:       0 to 3 per tweet from a small vocabulary, some with accents, the first ones much more frequent
+ *      users:          USERS authors, one {"limit": ...} notice every LIMIT_EVERY lines
+ */
+final class SampleTweets {
+    static final double RETWEET_RATIO = 0.55;
+    static final double REPLY_RATIO = 0.08;
+    static final double QUOTE_RATIO = 0.05;
+    static final int USERS = 5000;
+    static final int LIMIT_EVERY = 1000;
+    private static final long SEED = 20180512L;
+
+    private static final String[] HASHTAGS = {"Eurovision", "ESC2018", "Netta", "AllAboard", "Portugal", "ESC",
+            "Toy", "Fuego", "Mercy", "Eurovisi\u00f3n", "TooLate", "Lisboa", "EurovisionSongContest", "douzepoints",
+            "Saara", "Mikolas", "Eleni", "\u0395\u039b\u039b\u0391\u0394\u0391", "\u00d6sterreich", "Ces\u00e1r"};
+    private static final String[] COUNTRIES = {"Portugal", "Israel", "Cyprus", "Sweden", "United Kingdom", "Spain"};
+    private static final String[] LOCATIONS = {"Lisbon", "Tel Aviv", "London", "Madrid", "Stockholm", null, null};
+    private static final String[] WEEKDAYS = {"Sat", "Sun"};
+
+    private SampleTweets() {
+    }
+
+    /**
+     * @param count number of lines
+     * @return tweet lines as UTF-8 bytes, without the empty separator lines
+     */
+    static List<byte[]> lines(int count) {
+        Random random = new Random(SEED);
+        List<byte[]> lines = new ArrayList<>(count);
+        long firstId = 995000000000000000L;
+        for (int i = 0; i < count; i++) {
+            if (i % LIMIT_EVERY == LIMIT_EVERY - 1) {
+                lines.add(("{\"limit\":{\"track\":" + i + ",\"timestamp_ms\":\"1526150000000\"}}").getBytes(StandardCharsets.UTF_8));
+                continue;
+            }
+            long id = firstId + i;
+            StringBuilder sb = new StringBuilder(1024);
+            sb.append('{');
+            double kind = random.nextDouble();
+            if (kind < RETWEET_RATIO && i > 0) {
+                // Retweets of popular tweets: skewed towards the oldest tweets
+                long original = firstId + (long) (i * Math.pow(random.nextDouble(), 3));
+                appendTweet(sb, random, id, i, -1, -1);
+                sb.append(",\"retweeted_status\":{");
+                appendTweet(sb, random, original, (int) (original - firstId), -1, -1);
+                sb.append('}');
+            } else if (kind < RETWEET_RATIO + REPLY_RATIO && i > 0) {
+                appendTweet(sb, random, id, i, firstId + random.nextInt(i), -1);
+            } else if (kind < RETWEET_RATIO + REPLY_RATIO + QUOTE_RATIO && i > 0) {
+                appendTweet(sb, random, id, i, -1, firstId + random.nextInt(i));
+            } else {
+                appendTweet(sb, random, id, i, -1, -1);
+            }
+            sb.append('}');
+            lines.add(sb.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private static void appendTweet(StringBuilder sb, Random random, long id, int n, long replyId, long quoteId) {
+        int seconds = n % 86400;
+        sb.append("\"created_at\":\"").append(WEEKDAYS[n / 86400 % 2]).append(" May ").append(12 + n / 86400 % 2)
+                .append(String.format(" %02d:%02d:%02d +0000 2018\"", seconds / 3600, seconds / 60 % 60, seconds % 60));
+        sb.append(",\"id\":").append(id).append(",\"id_str\":\"").append(id).append('"');
+        sb.append(",\"text\":\"RT @user").append(n % 97).append(": Tweet number ").append(n)
+                .append(" about \\\"Eurovision\\\" \\u00e9\\ud83c\\udfb6 https:\\/\\/t.co\\/x").append(n).append('"');
+        sb.append(",\"in_reply_to_status_id\":").append(replyId == -1 ? "null" : Long.toString(replyId));
+        if (quoteId != -1) {
+            sb.append(",\"quoted_status_id\":").append(quoteId);
+        }
+        int user = (int) (USERS * Math.pow(random.nextDouble(), 2));
+        String location = LOCATIONS[random.nextInt(LOCATIONS.length)];
+        sb.append(",\"user\":{\"id\":").append(100000 + user).append(",\"screen_name\":\"fan").append(user).append('"')
+                .append(",\"location\":").append(location == null ? "null" : '"' + location + '"')
+                .append(",\"verified\":").append(user % 50 == 0).append(",\"followers_count\":").append(user * 7).append('}');
+        if (random.nextInt(10) == 0) {
+            sb.append(",\"place\":{\"country\":\"").append(COUNTRIES[random.nextInt(COUNTRIES.length)]).append("\"}");
+        } else {
+            sb.append(",\"place\":null");
+        }
+        sb.append(",\"entities\":{\"hashtags\":[");
+        int hashtags = random.nextInt(4);
+        for (int h = 0; h < hashtags; h++) {
+            String hashtag = HASHTAGS[(int) (HASHTAGS.length * Math.pow(random.nextDouble(), 2))];
+            sb.append(h > 0 ? "," : "").append("{\"text\":\"").append(escape(hashtag)).append("\",\"indices\":[0,1]}");
+        }
+        sb.append("],\"urls\":[]},\"lang\":\"en\"");
+    }
+
+    /**
+     * @return JSON string content with non-ASCII characters as \\uXXXX escapes, like the Twitter API writes them
+     */
+    private static String escape(String s) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                sb.append(c);
+            } else {
+                sb.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return created_at values of the sample lines
+     */
+    static List<byte[]> createdAt(int count) {
+        List<byte[]> values = new ArrayList<>(count);
+        for (int n = 0; n < count; n++) {
+            int seconds = n * 37 % 86400;
+            values.add(String.format("%s May %d %02d:%02d:%02d +0000 2018", WEEKDAYS[n % 2], 12 + n % 2,
+                    seconds / 3600, seconds / 60 % 60, seconds % 60).getBytes(StandardCharsets.US_ASCII));
+        }
+        return values;
+    }
+
+    /**
+     * @return raw hashtag texts in sample frequency
+     */
+    static List<String> hashtags(int count) {
+        Random random = new Random(SEED);
+        List<String> values = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(HASHTAGS[(int) (HASHTAGS.length * Math.pow(random.nextDouble(), 2))]);
+        }
+        return values;
+    }
+}
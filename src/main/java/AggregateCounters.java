@@ -0,0 +1,214 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Counters maintained by the import, so popularity and activity questions need no scan over the edges
+ * Schema:
+ *      User.post_count (long):       "post" edges of the user
+ *      User.retweet_count (long):    tweets of the user that are retweets
+ *      User.reply_count (long):      tweets of the user that are replies
+ *      Tweet.retweeted_count (long): "retweet" edges pointing at the tweet
+ *      HashtagHour (class):          hashtag (string), hour (datetime, start of the UTC hour of created_at),
+ *                                    uses (long, "contain" edges of tweets of that hour), unique hash index on (hashtag, hour)
+ *
+ * A new Tweet vertex adds its deltas to the pending deltas of its thread. LISTENER adds them to the stored values in the
+ * batch transaction, one UPDATE per user, tweet and hashtag hour of the batch, and drops them after commit or rollback,
+ * so the counters always match the committed tweets and a replayed batch is not counted twice.
+ * The query methods read one record through a unique index, constant time at any size.
+ * NOTE: every batch adds to the HashtagHour of its hour, concurrent writers would conflict on it on every commit,
+ *       even --partitioned ones, and replay their batches: Main keeps the counters to single writer imports.
+ */
+public class AggregateCounters {
+    static final String HASHTAG_HOUR = "HashtagHour";
+    private static final long HOUR = 3600000L;
+
+    /**
+     * Counter deltas of a group of tweets
+     */
+    private static final class Delta {
+        // user_id -> {posts, retweets, replies}
+        final Map<Long, long[]> users = new HashMap<>();
+        // tweet_id of the original -> retweets
+        final Map<Long, Long> retweeted = new HashMap<>();
+        // start of the hour -> hashtag -> uses
+        final Map<Long, Map<String, Long>> hashtags = new HashMap<>();
+
+        void clear() {
+            users.clear();
+            retweeted.clear();
+            hashtags.clear();
+        }
+    }
+
+    private static final ThreadLocal<Delta> pending = ThreadLocal.withInitial(Delta::new);
+
+    /**
+     * Create counter properties, class HashtagHour and its indexes if missing, must run outside of a transaction
+     * @param db OrientDB TwitterDB connection
+     */
+    static void createSchema(ODatabaseSession db) {
+        OClass user = db.getClass("User");
+        for (String property : new String[]{"post_count", "retweet_count", "reply_count"}) {
+            if (user.getProperty(property) == null) {
+                user.createProperty(property, OType.LONG);
+            }
+        }
+        OClass tweet = db.getClass("Tweet");
+        if (tweet.getProperty("retweeted_count") == null) {
+            tweet.createProperty("retweeted_count", OType.LONG);
+        }
+        OClass hashtagHour = db.getClass(HASHTAG_HOUR);
+        if (hashtagHour == null) {
+            hashtagHour = db.createClass(HASHTAG_HOUR);
+        }
+        if (hashtagHour.getProperty("hashtag") == null) {
+            hashtagHour.createProperty("hashtag", OType.STRING);
+            hashtagHour.createProperty("hour", OType.DATETIME);
+            hashtagHour.createProperty("uses", OType.LONG);
+            hashtagHour.createIndex("HashtagHour_hashtag_hour_index", OClass.INDEX_TYPE.UNIQUE_HASH_INDEX, "hashtag", "hour");
+            hashtagHour.createIndex("HashtagHour_hour_index", OClass.INDEX_TYPE.NOTUNIQUE, "hour");
+        }
+    }
+
+    /**
+     * Count a new Tweet vertex in the current transaction
+     * @param userId user_id of the author, target of its "post" edge
+     * @param retweetId tweet_id of the retweeted original, -1 if the tweet is no retweet
+     * @param replyId tweet_id of the replied tweet, -1 if the tweet is no reply
+     */
+    static void tweet(long userId, long retweetId, long replyId) {
+        Delta delta = pending.get();
+        long[] counts = delta.users.computeIfAbsent(userId, k -> new long[3]);
+        counts[0]++;
+        if (retweetId != -1) {
+            counts[1]++;
+            delta.retweeted.merge(retweetId, 1L, Long::sum);
+        }
+        if (replyId != -1) {
+            counts[2]++;
+        }
+    }
+
+    /**
+     * Count a "contain" edge of a new Tweet vertex in the current transaction
+     * @param hashtag normalized hashtag
+     * @param createdAt created_at of the tweet
+     */
+    static void hashtag(String hashtag, Date createdAt) {
+        pending.get().hashtags.computeIfAbsent(hourOf(createdAt), k -> new HashMap<>()).merge(hashtag, 1L, Long::sum);
+    }
+
+    private static long hourOf(Date time) {
+        return Math.floorDiv(time.getTime(), HOUR) * HOUR;
+    }
+
+    /**
+     * Adds the deltas of this thread to the stored counters in its batch transaction
+     */
+    static final TransactionListeners.Listener LISTENER = new TransactionListeners.Listener() {
+        @Override
+        public void beforeCommit(TransactionListeners.StatementWriter writer) {
+            Delta delta = pending.get();
+            for (Map.Entry<Long, long[]> user : delta.users.entrySet()) {
+                long[] counts = user.getValue();
+                writer.add(Statements.ADD_USER_COUNTS, counts[0], counts[1], counts[2], user.getKey());
+            }
+            for (Map.Entry<Long, Long> tweet : delta.retweeted.entrySet()) {
+                writer.add(Statements.ADD_RETWEETED_COUNT, tweet.getValue(), tweet.getKey());
+            }
+            for (Map.Entry<Long, Map<String, Long>> hour : delta.hashtags.entrySet()) {
+                Date start = new Date(hour.getKey());
+                for (Map.Entry<String, Long> hashtag : hour.getValue().entrySet()) {
+                    writer.add(Statements.ADD_HASHTAG_USES, hashtag.getKey(), start, hashtag.getValue(), hashtag.getKey(), start);
+                }
+            }
+        }
+
+        @Override
+        public void committed() {
+            pending.get().clear();
+        }
+
+        @Override
+        public void discarded() {
+            pending.get().clear();
+        }
+    };
+
+    private static long storedLong(ODatabaseSession db, String sql, String property, Object... keys) {
+        try (OResultSet rs = Statements.query(db, sql, keys)) {
+            if (!rs.hasNext()) {
+                return 0;
+            }
+            Long value = rs.next().getProperty(property);
+            return value == null ? 0 : value;
+        }
+    }
+
+    /**
+     * @param db OrientDB TwitterDB connection
+     * @param userId user_id
+     * @return {posts, retweets, replies} of the user
+     */
+    static long[] userActivity(ODatabaseSession db, long userId) {
+        long[] counts = new long[3];
+        try (OResultSet rs = Statements.query(db, Statements.USER_COUNTS, userId)) {
+            if (rs.hasNext()) {
+                OResult result = rs.next();
+                String[] properties = {"post_count", "retweet_count", "reply_count"};
+                for (int i = 0; i < counts.length; i++) {
+                    Long value = result.getProperty(properties[i]);
+                    counts[i] = value == null ? 0 : value;
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @param db OrientDB TwitterDB connection
+     * @param tweetId tweet_id of the original
+     * @return number of retweets of the tweet
+     */
+    static long retweetCount(ODatabaseSession db, long tweetId) {
+        return storedLong(db, Statements.RETWEETED_COUNT, "retweeted_count", tweetId);
+    }
+
+    /**
+     * @param db OrientDB TwitterDB connection
+     * @param hashtag normalized hashtag
+     * @param time any time within the hour
+     * @return number of tweets created within the hour that contain the hashtag
+     */
+    static long hashtagUses(ODatabaseSession db, String hashtag, Date time) {
+        return storedLong(db, Statements.HASHTAG_USES, "uses", hashtag, new Date(hourOf(time)));
+    }
+
+    /**
+     * Most used hashtags of one hour
+     * Reads the HashtagHour records of that hour through its index, not the edges.
+     * @param db OrientDB TwitterDB connection
+     * @param time any time within the hour
+     * @param limit number of hashtags
+     * @return "hashtag=uses", most used first
+     */
+    static List<String> topHashtags(ODatabaseSession db, Date time, int limit) {
+        List<String> top = new ArrayList<>();
+        try (OResultSet rs = Statements.query(db, Statements.TOP_HASHTAGS, new Date(hourOf(time)), limit)) {
+            while (rs.hasNext()) {
+                OResult result = rs.next();
+                top.add(result.getProperty("hashtag") + "=" + result.getProperty("uses"));
+            }
+        }
+        return top;
+    }
+}
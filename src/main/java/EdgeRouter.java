@@ -0,0 +1,284 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.OElement;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Key partitioned writers (--partitioned): every contended vertex is written by one writer only
+ * Tweets are routed to writer partition(user_id) by ImportPipeline, so the writer of a tweet owns its author and creates
+ * the "post" edge itself. The edges that pile up on a few very popular vertices are not created by the tweet's writer:
+ *      post:       User -> Tweet of a retweet placeholder whose author belongs to another writer, attached by that writer
+ *      contain:    Tweet -> Hashtag, attached by writer partition(hashtag), which also creates the Hashtag vertex
+ *      retweet:    Tweet -> Tweet, attached by writer partition(retweet_id), the retweeted original
+ * So each User, Hashtag and retweeted original only gets new edges from one writer.
+ * Such an edge is saved as a RoutedEdge document in the transaction of its tweet and moves to the inbox of the owning
+ * writer when that transaction commits (dropped on rollback). An owner drains its inbox between its own tweet batches,
+ * sorted by target so a hot Hashtag or original is loaded once and gets a whole batch of edges in one transaction,
+ * which also deletes their RoutedEdge documents. The inboxes are only a copy of the RoutedEdge class: the edges of an
+ * import killed before attaching them are loaded again by recover when the next --partitioned import starts.
+ * Schema (class RoutedEdge): kind (integer, POST / RETWEET / CONTAIN), tweet_id (long), target (long), hashtag (string)
+ * NOTE: a retweet placeholder (and the User vertex of its author) is still created by the tweet's writer, as are the
+ *       reply and quote edges, these rare conflicts are replayed by Main.runInTransaction.
+ *       A deferred edge appears in the database after its tweet, at the latest when the import ends.
+ */
+public class EdgeRouter implements TransactionListeners.Listener {
+    static final String CLASS = "RoutedEdge";
+    private static final int POST = 0;
+    private static final int RETWEET = 1;
+    private static final int CONTAIN = 2;
+    private static final String[] LABELS = {"post", "retweet", "contain"};
+
+    private static final class Edge {
+        final int kind;
+        final long tweetId;
+        // user_id of a post edge, retweet_id of a retweet edge, 0 for a contain edge
+        final long target;
+        // hashtag of a contain edge, null o.w.
+        final String hashtag;
+        // RoutedEdge document, its record ID is final once the tweet's transaction committed
+        final ORID rid;
+
+        Edge(int kind, long tweetId, long target, String hashtag, ORID rid) {
+            this.kind = kind;
+            this.tweetId = tweetId;
+            this.target = target;
+            this.hashtag = hashtag;
+            this.rid = rid;
+        }
+    }
+
+    // Attach order: kind, then target, so one group per hot vertex
+    private static final Comparator<Edge> BY_TARGET = Comparator.<Edge>comparingInt(e -> e.kind)
+            .thenComparingLong(e -> e.target)
+            .thenComparing(e -> e.hashtag, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+    private final int partitions;
+    private final int batchSize;
+    private final List<Queue<Edge>> inboxes = new ArrayList<>();
+    private final AtomicInteger[] inboxSizes;
+    private final ThreadLocal<List<Edge>> pending = ThreadLocal.withInitial(ArrayList::new);
+    // Partition of the writer thread, -1 for other threads
+    private final ThreadLocal<Integer> writer = ThreadLocal.withInitial(() -> -1);
+    private final LongAdder routed = new LongAdder();
+    private final LongAdder transactions = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+
+    /**
+     * @param partitions number of writers
+     * @param batchSize deferred edges attached per transaction
+     */
+    public EdgeRouter(int partitions, int batchSize) {
+        this.partitions = partitions;
+        this.batchSize = batchSize;
+        this.inboxSizes = new AtomicInteger[partitions];
+        for (int i = 0; i < partitions; i++) {
+            inboxes.add(new ConcurrentLinkedQueue<>());
+            inboxSizes[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Create class RoutedEdge if missing, must run outside of a transaction
+     * @param db OrientDB TwitterDB connection
+     */
+    static void createSchema(ODatabaseSession db) {
+        OClass routed = db.getClass(CLASS);
+        if (routed == null) {
+            routed = db.createClass(CLASS);
+        }
+        if (routed.getProperty("kind") == null) {
+            routed.createProperty("kind", OType.INTEGER);
+            routed.createProperty("tweet_id", OType.LONG);
+            routed.createProperty("target", OType.LONG);
+            routed.createProperty("hashtag", OType.STRING);
+        }
+    }
+
+    /**
+     * Put the RoutedEdge documents left by an earlier import in the inboxes of their owners, call before the writers start
+     * @param db OrientDB TwitterDB connection
+     */
+    void recover(ODatabaseSession db) {
+        try (OResultSet rs = Statements.query(db, Statements.ROUTED_EDGES)) {
+            while (rs.hasNext()) {
+                OResult result = rs.next();
+                int kind = result.getProperty("kind");
+                long tweetId = result.getProperty("tweet_id");
+                long target = result.getProperty("target");
+                String hashtag = result.getProperty("hashtag");
+                ORID rid = result.getProperty("rid");
+                enqueue(new Edge(kind, tweetId, target, hashtag, rid));
+                recovered.increment();
+            }
+        }
+    }
+
+    /**
+     * @param key user_id or tweet_id
+     * @return writer owning the vertex with that key
+     */
+    int partition(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) Math.floorMod(h ^ (h >>> 32), (long) partitions);
+    }
+
+    /**
+     * @param hashtag normalized hashtag
+     * @return writer owning the Hashtag vertex
+     */
+    int partition(String hashtag) {
+        return Math.floorMod(hashtag.hashCode() * 0x9E3779B9, partitions);
+    }
+
+    /**
+     * Bind the calling thread to the partition it writes
+     * @param partition index of the writer
+     */
+    void bind(int partition) {
+        writer.set(partition);
+    }
+
+    /**
+     * @param userId user_id
+     * @return true if the calling writer owns the User vertex
+     */
+    boolean owns(long userId) {
+        return partition(userId) == writer.get();
+    }
+
+    /**
+     * Defer a "post" edge of the current transaction to the writer of the user
+     * @param db OrientDB TwitterDB connection, in the transaction of the tweet
+     * @param userId user_id of the author, owned by another writer
+     * @param tweetId tweet_id of the tweet
+     */
+    void post(ODatabaseSession db, long userId, long tweetId) {
+        route(db, POST, tweetId, userId, null);
+    }
+
+    /**
+     * Defer a "retweet" edge of the current transaction to the writer of the original
+     * @param db OrientDB TwitterDB connection, in the transaction of the tweet
+     * @param tweetId tweet_id of the retweet
+     * @param retweetId tweet_id of the original
+     */
+    void retweet(ODatabaseSession db, long tweetId, long retweetId) {
+        route(db, RETWEET, tweetId, retweetId, null);
+    }
+
+    /**
+     * Defer a "contain" edge of the current transaction to the writer of the hashtag
+     * @param db OrientDB TwitterDB connection, in the transaction of the tweet
+     * @param tweetId tweet_id of the tweet
+     * @param hashtag normalized hashtag, its vertex is created by the owner if missing
+     */
+    void contain(ODatabaseSession db, long tweetId, String hashtag) {
+        route(db, CONTAIN, tweetId, 0, hashtag);
+    }
+
+    private void route(ODatabaseSession db, int kind, long tweetId, long target, String hashtag) {
+        OElement record = db.newElement(CLASS);
+        record.setProperty("kind", kind);
+        record.setProperty("tweet_id", tweetId);
+        record.setProperty("target", target);
+        if (hashtag != null) {
+            record.setProperty("hashtag", hashtag);
+        }
+        record.save();
+        pending.get().add(new Edge(kind, tweetId, target, hashtag, record.getIdentity()));
+    }
+
+    private void enqueue(Edge edge) {
+        int owner = edge.kind == CONTAIN ? partition(edge.hashtag) : partition(edge.target);
+        inboxes.get(owner).add(edge);
+        inboxSizes[owner].incrementAndGet();
+    }
+
+    /**
+     * Hand the deferred edges of the transaction of this thread that committed to their owners
+     */
+    @Override
+    public void committed() {
+        List<Edge> edges = pending.get();
+        for (Edge edge : edges) {
+            enqueue(edge);
+        }
+        routed.add(edges.size());
+        edges.clear();
+    }
+
+    /**
+     * Forget the deferred edges of the transaction of this thread that was rolled back, the replay adds them again
+     */
+    @Override
+    public void discarded() {
+        pending.get().clear();
+    }
+
+    /**
+     * Attach deferred edges owned by a writer and delete their RoutedEdge documents, in transactions of batchSize edges
+     * @param db OrientDB TwitterDB connection of the owning writer, outside of a transaction
+     * @param partition owning writer
+     * @param all true to empty the inbox (end of import), false to attach full batches only
+     */
+    void attach(ODatabaseSession db, int partition, boolean all) {
+        Queue<Edge> inbox = inboxes.get(partition);
+        while (all ? inboxSizes[partition].get() > 0 : inboxSizes[partition].get() >= batchSize) {
+            List<Edge> batch = new ArrayList<>(batchSize);
+            Edge edge;
+            while (batch.size() < batchSize && (edge = inbox.poll()) != null) {
+                batch.add(edge);
+            }
+            inboxSizes[partition].addAndGet(-batch.size());
+            batch.sort(BY_TARGET);
+            Main.runInTransaction(db, () -> {
+                ORID targetRid = null;
+                for (int i = 0; i < batch.size(); i++) {
+                    Edge e = batch.get(i);
+                    // Look up the hot vertex once per group
+                    if (i == 0 || BY_TARGET.compare(batch.get(i - 1), e) != 0) {
+                        targetRid = findTarget(db, e);
+                    }
+                    ORID tweetRid = Main.findTweetVertex(db, e.tweetId);
+                    if (e.kind == POST) {
+                        Main.createEdge(db, targetRid, tweetRid, LABELS[e.kind]);
+                    } else {
+                        Main.createEdge(db, tweetRid, targetRid, LABELS[e.kind]);
+                    }
+                    db.delete(e.rid);
+                }
+            });
+            transactions.increment();
+        }
+    }
+
+    private static ORID findTarget(ODatabaseSession db, Edge edge) {
+        switch (edge.kind) {
+            case POST:
+                return Main.findUserVertex(db, edge.target);
+            case CONTAIN:
+                return Main.findOrCreateHashtagVertex(db, edge.hashtag);
+            default:
+                return Main.findTweetVertex(db, edge.target);
+        }
+    }
+
+    /**
+     * @return one line summary of routed and recovered edges and the transactions attaching them
+     */
+    String stats() {
+        return String.format("Routed edges: %,d (%,d recovered) in %,d transactions over %d writers", routed.sum(),
+                recovered.sum(), transactions.sum(), partitions);
+    }
+}
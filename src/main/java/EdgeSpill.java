@@ -0,0 +1,339 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.id.ORID;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Pending relation edges of the two-phase import, kept as sorted runs on disk
+ * Phase one (vertices only) adds one pair of keys per edge, phase two (resolve) merges the runs of each edge class
+ * and creates the edges in large transactions.
+ * Pair layout, first key is the one edges are grouped by:
+ *      post:       user_id,    tweet_id    (User -> Tweet)
+ *      retweet:    tweet_id,   retweet_id  (Tweet -> Tweet)
+ *      reply:      tweet_id,   reply_id    (Tweet -> Tweet)
+ *      quote:      tweet_id,   quote_id    (Tweet -> Tweet)
+ *      contain:    hashtag,    tweet_id    (Tweet -> Hashtag), hashtag is an index into the hashtag dictionary
+ *
+ * Sorting puts all edges of one User / Tweet / Hashtag next to each other, so its vertex is looked up once per group,
+ * and identical pairs (tweets seen twice, replayed batches) collapse into one edge.
+ * An edge that already exists in the database is not created again, Main.createEdge checks the edges of the Tweet.
+ */
+public class EdgeSpill implements Closeable {
+    static final int POST = 0;
+    static final int RETWEET = 1;
+    static final int REPLY = 2;
+    static final int QUOTE = 3;
+    static final int CONTAIN = 4;
+    private static final String[] LABELS = {"post", "retweet", "reply", "quote", "contain"};
+
+    private final Path dir;
+    private final int runSize;
+    private final long[][] buffers = new long[LABELS.length][];
+    private final int[] sizes = new int[LABELS.length];
+    private final List<List<Path>> runs = new ArrayList<>();
+    private int buffered;
+
+    private final Map<String, Integer> hashtagIds = new HashMap<>();
+    private final List<String> hashtags = new ArrayList<>();
+
+    private long added;
+    private long created;
+    private long duplicates;
+    private long unresolved;
+
+    /**
+     * @param spillDir directory for run files, created if missing, each import writes into its own new subdirectory
+     * @param runSize number of pending edges held in memory before they are sorted and written as runs
+     */
+    public EdgeSpill(Path spillDir, int runSize) throws IOException {
+        this.dir = Files.createTempDirectory(Files.createDirectories(spillDir), "spill-");
+        this.runSize = runSize;
+        for (int kind = 0; kind < LABELS.length; kind++) {
+            buffers[kind] = new long[1024];
+            runs.add(new ArrayList<>());
+        }
+    }
+
+    /**
+     * Add pending edge, see the pair layout of this class
+     * @param kind POST, RETWEET, REPLY or QUOTE
+     * @param first out vertex key (user_id or tweet_id)
+     * @param second in vertex key (tweet_id)
+     */
+    public synchronized void add(int kind, long first, long second) {
+        long[] buffer = buffers[kind];
+        if (2 * sizes[kind] + 2 > buffer.length) {
+            buffer = buffers[kind] = Arrays.copyOf(buffer, 2 * buffer.length);
+        }
+        buffer[2 * sizes[kind]] = first;
+        buffer[2 * sizes[kind] + 1] = second;
+        sizes[kind]++;
+        added++;
+        if (++buffered >= runSize) {
+            try {
+                spill();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Add pending "contain" edge
+     * @param tweetId given tweet ID
+     * @param hashtag given normalized hashtag name
+     */
+    public synchronized void addContain(long tweetId, String hashtag) {
+        Integer id = hashtagIds.get(hashtag);
+        if (id == null) {
+            id = hashtags.size();
+            hashtags.add(hashtag);
+            hashtagIds.put(hashtag, id);
+        }
+        add(CONTAIN, id, tweetId);
+    }
+
+    /**
+     * Sort every buffer and write it as a new run file
+     */
+    private void spill() throws IOException {
+        for (int kind = 0; kind < LABELS.length; kind++) {
+            if (sizes[kind] == 0) {
+                continue;
+            }
+            sortPairs(buffers[kind], 0, sizes[kind] - 1);
+            Path run = dir.resolve(LABELS[kind] + "-" + runs.get(kind).size() + ".run");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+                for (int i = 0; i < 2 * sizes[kind]; i++) {
+                    out.writeLong(buffers[kind][i]);
+                }
+            }
+            runs.get(kind).add(run);
+            sizes[kind] = 0;
+        }
+        buffered = 0;
+    }
+
+    /**
+     * Phase two, create every pending edge whose two vertices exist
+     * @param db OrientDB TwitterDB connection
+     * @param batchSize number of edges committed per transaction
+     */
+    public synchronized void resolve(ODatabaseSession db, int batchSize) throws IOException {
+        spill();
+        for (int kind = 0; kind < LABELS.length; kind++) {
+            PriorityQueue<RunCursor> queue = new PriorityQueue<>();
+            for (Path run : runs.get(kind)) {
+                RunCursor cursor = new RunCursor(run);
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                } else {
+                    cursor.close();
+                }
+            }
+
+            long[] batch = new long[2 * batchSize];
+            int n = 0;
+            boolean hasPrevious = false;
+            long previousFirst = 0;
+            long previousSecond = 0;
+            while (!queue.isEmpty()) {
+                RunCursor cursor = queue.poll();
+                long first = cursor.first;
+                long second = cursor.second;
+                if (cursor.advance()) {
+                    queue.add(cursor);
+                } else {
+                    cursor.close();
+                }
+                if (hasPrevious && first == previousFirst && second == previousSecond) {
+                    duplicates++;
+                    continue;
+                }
+                hasPrevious = true;
+                previousFirst = first;
+                previousSecond = second;
+
+                batch[2 * n] = first;
+                batch[2 * n + 1] = second;
+                if (++n == batchSize) {
+                    createEdges(db, kind, batch, n);
+                    n = 0;
+                }
+            }
+            if (n > 0) {
+                createEdges(db, kind, batch, n);
+            }
+            for (Path run : runs.get(kind)) {
+                Files.deleteIfExists(run);
+            }
+            runs.get(kind).clear();
+        }
+    }
+
+    /**
+     * Create one sorted batch of edges in one transaction
+     */
+    private void createEdges(ODatabaseSession db, int kind, long[] batch, int n) {
+        long[] counts = new long[2];
+        Main.runInTransaction(db, () -> {
+            counts[0] = 0;
+            counts[1] = 0;
+            ORID firstRid = null;
+            for (int i = 0; i < n; i++) {
+                long first = batch[2 * i];
+                long second = batch[2 * i + 1];
+                // Pairs are sorted, look up the grouping vertex once per group
+                if (i == 0 || first != batch[2 * i - 2]) {
+                    firstRid = findFirst(db, kind, first);
+                }
+                ORID secondRid = Main.findTweetVertex(db, second);
+                if (firstRid == null || secondRid == null) {
+                    counts[1]++;
+                    IngestMetrics.droppedEdge(LABELS[kind]);
+                } else if (kind == CONTAIN) {
+                    Main.createEdge(db, secondRid, firstRid, LABELS[kind]);
+                    counts[0]++;
+                } else {
+                    Main.createEdge(db, firstRid, secondRid, LABELS[kind]);
+                    counts[0]++;
+                }
+            }
+        });
+        created += counts[0];
+        unresolved += counts[1];
+    }
+
+    private ORID findFirst(ODatabaseSession db, int kind, long first) {
+        switch (kind) {
+            case POST:
+                return Main.findUserVertex(db, first);
+            case CONTAIN:
+                return Main.findHashtagVertex(db, hashtags.get((int) first));
+            default:
+                return Main.findTweetVertex(db, first);
+        }
+    }
+
+    /**
+     * @return one line summary of pending, created, duplicate and unresolved edges
+     */
+    public synchronized String stats() {
+        return String.format("Deferred edges: added=%d created=%d duplicates=%d unresolved=%d",
+                added, created, duplicates, unresolved);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (List<Path> kindRuns : runs) {
+            for (Path run : kindRuns) {
+                Files.deleteIfExists(run);
+            }
+            kindRuns.clear();
+        }
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * In-place quicksort of (first, second) pairs stored flat in data, pairs lo..hi inclusive
+     */
+    private static void sortPairs(long[] data, int lo, int hi) {
+        while (hi - lo > 16) {
+            int mid = (lo + hi) >>> 1;
+            long pivotFirst = data[2 * mid];
+            long pivotSecond = data[2 * mid + 1];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (comparePair(data, i, pivotFirst, pivotSecond) < 0) {
+                    i++;
+                }
+                while (comparePair(data, j, pivotFirst, pivotSecond) > 0) {
+                    j--;
+                }
+                if (i <= j) {
+                    swapPairs(data, i++, j--);
+                }
+            }
+            // Recurse into the smaller half, loop on the larger one
+            if (j - lo < hi - i) {
+                sortPairs(data, lo, j);
+                lo = i;
+            } else {
+                sortPairs(data, i, hi);
+                hi = j;
+            }
+        }
+        for (int i = lo + 1; i <= hi; i++) {
+            for (int j = i; j > lo && comparePair(data, j, data[2 * j - 2], data[2 * j - 1]) < 0; j--) {
+                swapPairs(data, j, j - 1);
+            }
+        }
+    }
+
+    private static int comparePair(long[] data, int i, long first, long second) {
+        int c = Long.compare(data[2 * i], first);
+        return c != 0 ? c : Long.compare(data[2 * i + 1], second);
+    }
+
+    private static void swapPairs(long[] data, int i, int j) {
+        long first = data[2 * i];
+        long second = data[2 * i + 1];
+        data[2 * i] = data[2 * j];
+        data[2 * i + 1] = data[2 * j + 1];
+        data[2 * j] = first;
+        data[2 * j + 1] = second;
+    }
+
+    /**
+     * Sequential reader of one run file for the k-way merge
+     */
+    private static class RunCursor implements Comparable<RunCursor>, Closeable {
+        private final DataInputStream in;
+        long first;
+        long second;
+
+        RunCursor(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 16));
+        }
+
+        /**
+         * @return false at the end of the run
+         */
+        boolean advance() throws IOException {
+            try {
+                first = in.readLong();
+            } catch (EOFException e) {
+                return false;
+            }
+            second = in.readLong();
+            return true;
+        }
+
+        @Override
+        public int compareTo(RunCursor other) {
+            int c = Long.compare(first, other.first);
+            return c != 0 ? c : Long.compare(second, other.second);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,264 @@
+import com.orientechnologies.orient.core.db.ODatabasePool;
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Follow mode (--follow): keep importing files while they are appended to, or a stream (standard input, named pipe)
+ * until it is closed
+ * Per source two threads:
+ *      reader:     reads complete tweet lines from where the last run stopped (ImportCheckpoint) and waits for more at
+ *                  the end of a file, never reading it again from the start
+ *      writer:     imports the lines as micro-batches, a batch commits when it holds batchSize tweets or when its first
+ *                  line was read maxLatency ms ago, whichever comes first
+ * The threads are connected by a queue of 2 * batchSize lines. When the database falls behind the queue fills and the
+ * reader stops reading: the rest stays in the file, or blocks the process writing into the pipe.
+ * Lag is reported in the progress line: bytes of the file not imported yet and created_at of the last imported tweet,
+ * the read to commit latency is the FOLLOW stage of IngestMetrics.
+ * NOTE: lines are in the Eurovision#.json layout (tweet lines separated by empty lines), like importDataFromJson.
+ *       Every file source holds one writer session, sources are imported concurrently like ImportPipeline writers.
+ *       Files are not followed across rotation or truncation.
+ */
+public class FollowImport {
+    private static final Line END = new Line(null, 0, 0, 0);
+
+    private static final class Line {
+        final byte[] bytes;
+        final long offset;
+        final long lineNumber;
+        final long readNanos;
+
+        Line(byte[] bytes, long offset, long lineNumber, long readNanos) {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.lineNumber = lineNumber;
+            this.readNanos = readNanos;
+        }
+    }
+
+    private final ODatabasePool pool;
+    private final int batchSize;
+    private final long maxLatencyNanos;
+    private final long pollMillis;
+    private final long idleExitNanos;
+    private final boolean resume;
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param pool pool of OrientDB TwitterDB sessions, one per source
+     * @param batchSize largest micro-batch
+     * @param maxLatencyMillis longest time a read line waits for its batch to fill
+     * @param pollMillis wait before looking for new lines at the end of a file
+     * @param idleExitSeconds stop following a file after this long without a new line, 0 to follow forever
+     * @param resume continue every file from its ImportCheckpoint, o.w. from its first line
+     */
+    public FollowImport(ODatabasePool pool, int batchSize, long maxLatencyMillis, long pollMillis, long idleExitSeconds, boolean resume) {
+        this.pool = pool;
+        this.batchSize = batchSize;
+        this.maxLatencyNanos = TimeUnit.MILLISECONDS.toNanos(maxLatencyMillis);
+        this.pollMillis = pollMillis;
+        this.idleExitNanos = TimeUnit.SECONDS.toNanos(idleExitSeconds);
+        this.resume = resume;
+    }
+
+    /**
+     * One followed input with its position, shared by its reader and writer
+     */
+    private final class Source {
+        final String name;
+        // null for a stream
+        final Path file;
+        final InputStream stream;
+        final BlockingQueue<Line> queue = new ArrayBlockingQueue<>(2 * batchSize);
+        volatile long committedOffset;
+        volatile long lastCreatedAt = -1;
+
+        Source(String name, Path file, InputStream stream) {
+            this.name = name;
+            this.file = file;
+            this.stream = stream;
+        }
+
+        long bytesBehind() {
+            if (file == null) {
+                return -1;
+            }
+            try {
+                return Math.max(0, Files.size(file) - committedOffset);
+            } catch (IOException e) {
+                return -1;
+            }
+        }
+
+        long eventLagMillis() {
+            long createdAt = lastCreatedAt;
+            return createdAt < 0 ? -1 : Math.max(0, System.currentTimeMillis() - createdAt);
+        }
+    }
+
+    /**
+     * @param input as for run
+     * @return number of sources of the input, each imported by its own writer
+     */
+    static int sourceCount(String input) throws IOException {
+        Path path = Paths.get(input);
+        if (input.equals("-") || Files.exists(path) && !Files.isRegularFile(path) && !Files.isDirectory(path)) {
+            return 1;
+        }
+        return Main.resolveInputFiles(input).size();
+    }
+
+    /**
+     * Follow the input until every stream is closed and every file was idle for idleExitSeconds
+     * @param input "-" for standard input, a named pipe, or a file, directory or glob as for Main.resolveInputFiles
+     */
+    public void run(String input) throws Exception {
+        List<Source> sources = new ArrayList<>();
+        Path path = Paths.get(input);
+        if (input.equals("-")) {
+            sources.add(new Source("stdin", null, System.in));
+        } else if (Files.exists(path) && !Files.isRegularFile(path) && !Files.isDirectory(path)) {
+            sources.add(new Source(path.getFileName().toString(), null, new FileInputStream(path.toFile())));
+        } else {
+            for (Path file : Main.resolveInputFiles(input)) {
+                sources.add(new Source(ImportCheckpoint.key(file), file, null));
+            }
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(2 * sources.size());
+        for (Source source : sources) {
+            IngestMetrics.lag(source.name, source::bytesBehind, source::eventLagMillis);
+            ImportCheckpoint checkpoint = new ImportCheckpoint(source.name, 0, 0, 0);
+            if (source.file != null && resume) {
+                try (ODatabaseSession db = pool.acquire()) {
+                    checkpoint = ImportCheckpoint.load(db, source.name);
+                }
+                if (checkpoint.offset > 0) {
+                    System.out.println("Resume " + checkpoint);
+                }
+            }
+            source.committedOffset = checkpoint.offset;
+            ImportCheckpoint start = checkpoint;
+            executor.submit(() -> stage(executor, () -> read(source, start)));
+            executor.submit(() -> stage(executor, () -> {
+                try (ODatabaseSession db = pool.acquire()) {
+                    Main.prepareSession(db);
+                    write(db, source, start.batch);
+                }
+            }));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        Throwable error = failure.get();
+        if (error instanceof Exception) {
+            throw (Exception) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run one thread, the first failure is kept and stops all other threads
+     */
+    private void stage(ExecutorService executor, Stage stage) {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            // stopped because another thread failed
+        } catch (Throwable e) {
+            if (failure.compareAndSet(null, e)) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Reader thread, lines are copied out of the reader buffer and queued undecoded
+     */
+    private void read(Source source, ImportCheckpoint start) throws Exception {
+        try (TweetLineReader reader = source.file != null
+                ? TweetLineReader.follow(source.file, start.offset, start.line)
+                : TweetLineReader.open(source.stream)) {
+            long lastLine = System.nanoTime();
+            while (true) {
+                if (reader.next()) {
+                    lastLine = System.nanoTime();
+                    int begin = reader.lineStart();
+                    source.queue.put(new Line(Arrays.copyOfRange(reader.buffer(), begin, begin + reader.lineLength()),
+                            reader.offset(), reader.lineNumber(), lastLine));
+                } else if (reader.ended() || (idleExitNanos > 0 && System.nanoTime() - lastLine > idleExitNanos)) {
+                    break;
+                } else {
+                    Thread.sleep(pollMillis);
+                }
+            }
+        }
+        source.queue.put(END);
+    }
+
+    /**
+     * Writer thread, decodes and commits micro-batches, each with the checkpoint of its last line for a file
+     */
+    private void write(ODatabaseSession db, Source source, long batchNumber) throws Exception {
+        TweetDecoder decoder = new TweetDecoder();
+        TweetRecord[] records = new TweetRecord[batchSize];
+        int size = 0;
+        long firstRead = 0;
+        Line last = null;
+        while (true) {
+            Line line;
+            if (size == 0) {
+                line = source.queue.take();
+            } else {
+                line = source.queue.poll(firstRead + maxLatencyNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            if (line != null && line != END) {
+                if (records[size] == null) {
+                    records[size] = new TweetRecord();
+                }
+                long start = System.nanoTime();
+                decoder.decode(line.bytes, 0, line.bytes.length, records[size]);
+                IngestMetrics.record(IngestMetrics.Stage.DECODE, start);
+                if (size++ == 0) {
+                    firstRead = line.readNanos;
+                }
+                last = line;
+            }
+            if (size > 0 && (line == null || line == END || size >= batchSize)) {
+                List<TweetRecord> batch = Arrays.asList(records).subList(0, size);
+                ImportCheckpoint checkpoint = source.file != null
+                        ? new ImportCheckpoint(source.name, last.offset, last.lineNumber, ++batchNumber) : null;
+                Main.importBatch(db, batch, checkpoint);
+                IngestMetrics.record(IngestMetrics.Stage.FOLLOW, firstRead);
+                source.committedOffset = last.offset;
+                for (TweetRecord tweet : batch) {
+                    if (!tweet.limit && tweet.createdAt != TweetCodec.INVALID_TIME && tweet.createdAt > source.lastCreatedAt) {
+                        source.lastCreatedAt = tweet.createdAt;
+                    }
+                }
+                size = 0;
+            }
+            if (line == END) {
+                return;
+            }
+        }
+    }
+}
@@ -0,0 +1,367 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.db.OrientDB;
+import com.orientechnologies.orient.core.db.OrientDBConfig;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Graph analytics on a GraphSnapshot, every pass split over a fixed number of threads, one pool for all passes until
+ * close
+ *      pageRank:       PageRank of users over retweets, retweeter -> author of the original, one edge per retweet
+ *      cascades:       size (tweets) and depth (levels below the root) of every cascade, the tree of retweets and
+ *                      quotes under a tweet that is neither, a quote of a quote adds a level
+ *      replyThreads:   size and depth of every reply thread, the tree of replies under a tweet that is no reply
+ *      replyThread:    one thread in depth first order, as written in a client
+ *
+ * Usage: GraphAnalytics --snapshot <file> [--input <files> | --url <url>] [--threads n] [--top 10] [--iterations 20] [--thread <tweet_id>]
+ * With --input the snapshot is built from the files, with --url from the database (--db, --user, --password),
+ * o.w. an existing snapshot is opened.
+ */
+public class GraphAnalytics implements AutoCloseable {
+    private final GraphSnapshot graph;
+    private final int threads;
+    private final ExecutorService executor;
+
+    /**
+     * @param graph snapshot to analyze
+     * @param threads number of threads of every pass
+     */
+    GraphAnalytics(GraphSnapshot graph, int threads) {
+        this.graph = graph;
+        this.threads = threads;
+        this.executor = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * Stop the threads of the passes
+     */
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private interface Range {
+        void run(int from, int to);
+    }
+
+    /**
+     * Run body over 0..n split into one chunk per thread, and wait for every chunk
+     */
+    private void parallelFor(int n, Range body) {
+        try {
+            List<Future<?>> chunks = new ArrayList<>();
+            int chunk = (n + threads - 1) / threads;
+            for (int from = 0; from < n; from += chunk) {
+                int start = from;
+                int end = Math.min(n, from + chunk);
+                chunks.add(executor.submit(() -> body.run(start, end)));
+            }
+            for (Future<?> future : chunks) {
+                future.get();
+            }
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * PageRank of users over retweets, pull style: each user sums the shares of the users that retweeted it
+     * Users without retweets spread their rank over every user.
+     * @param iterations number of iterations
+     * @param damping probability of following a retweet, usually 0.85
+     * @return rank of every user index, summing to 1
+     */
+    double[] pageRank(int iterations, double damping) {
+        int users = graph.users;
+        // In edges of the user graph in CSR form: retweeters of user u are sources[offsets[u] .. offsets[u + 1])
+        int[] outDegree = new int[users];
+        int[] offsets = new int[users + 1];
+        for (int t = 0; t < graph.tweets; t++) {
+            int original = graph.parent(GraphSnapshot.RETWEET, t);
+            if (original >= 0 && graph.author(t) >= 0 && graph.author(original) >= 0) {
+                outDegree[graph.author(t)]++;
+                offsets[graph.author(original) + 1]++;
+            }
+        }
+        for (int u = 0; u < users; u++) {
+            offsets[u + 1] += offsets[u];
+        }
+        int[] sources = new int[offsets[users]];
+        int[] next = Arrays.copyOf(offsets, users);
+        for (int t = 0; t < graph.tweets; t++) {
+            int original = graph.parent(GraphSnapshot.RETWEET, t);
+            if (original >= 0 && graph.author(t) >= 0 && graph.author(original) >= 0) {
+                sources[next[graph.author(original)]++] = graph.author(t);
+            }
+        }
+
+        double[] rank = new double[users];
+        double[] share = new double[users];
+        Arrays.fill(rank, 1.0 / users);
+        for (int i = 0; i < iterations; i++) {
+            double dangling = 0;
+            for (int u = 0; u < users; u++) {
+                if (outDegree[u] == 0) {
+                    dangling += rank[u];
+                    share[u] = 0;
+                } else {
+                    share[u] = rank[u] / outDegree[u];
+                }
+            }
+            double base = (1 - damping) / users + damping * dangling / users;
+            double[] current = rank;
+            parallelFor(users, (from, to) -> {
+                for (int u = from; u < to; u++) {
+                    double sum = 0;
+                    for (int e = offsets[u]; e < offsets[u + 1]; e++) {
+                        sum += share[sources[e]];
+                    }
+                    current[u] = base + damping * sum;
+                }
+            });
+        }
+        return rank;
+    }
+
+    /**
+     * @return parent of the tweet in the tree over given relations, the first relation with an out edge wins, -1 for a root
+     */
+    private int treeParent(int[] relations, int tweet) {
+        for (int relation : relations) {
+            int parent = graph.parent(relation, tweet);
+            if (parent >= 0) {
+                return parent;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Size and depth of the tree under every root, by an iterative depth first walk per root
+     * A tweet is only walked under its treeParent, so a tweet with two out edges is counted once.
+     * @return {size, depth} per tweet index, size 0 for tweets that are no root or have no children
+     */
+    private int[][] trees(int[] relations) {
+        int[] size = new int[graph.tweets];
+        int[] depth = new int[graph.tweets];
+        parallelFor(graph.tweets, (from, to) -> {
+            int[] stack = new int[64];
+            int[] levels = new int[64];
+            for (int root = from; root < to; root++) {
+                if (treeParent(relations, root) >= 0 || !hasChildren(relations, root)) {
+                    continue;
+                }
+                int count = 0;
+                int maxLevel = 0;
+                int top = 0;
+                stack[top] = root;
+                levels[top++] = 0;
+                while (top > 0) {
+                    int tweet = stack[--top];
+                    int level = levels[top];
+                    count++;
+                    maxLevel = Math.max(maxLevel, level);
+                    for (int relation : relations) {
+                        for (int i = 0; i < graph.childCount(relation, tweet); i++) {
+                            int child = graph.child(relation, tweet, i);
+                            if (treeParent(relations, child) != tweet) {
+                                continue;
+                            }
+                            if (top == stack.length) {
+                                stack = Arrays.copyOf(stack, top * 2);
+                                levels = Arrays.copyOf(levels, top * 2);
+                            }
+                            stack[top] = child;
+                            levels[top++] = level + 1;
+                        }
+                    }
+                }
+                size[root] = count;
+                depth[root] = maxLevel;
+            }
+        });
+        return new int[][]{size, depth};
+    }
+
+    private boolean hasChildren(int[] relations, int tweet) {
+        for (int relation : relations) {
+            if (graph.childCount(relation, tweet) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return {size, depth} of the retweet / quote cascade under every root tweet
+     */
+    int[][] cascades() {
+        return trees(new int[]{GraphSnapshot.RETWEET, GraphSnapshot.QUOTE});
+    }
+
+    /**
+     * @return {size, depth} of the reply thread under every root tweet
+     */
+    int[][] replyThreads() {
+        return trees(new int[]{GraphSnapshot.REPLY});
+    }
+
+    /**
+     * Reconstruct the reply thread a tweet belongs to
+     * @param tweetId any tweet of the thread
+     * @return "  " per level + tweet_id + " @" + user_id, root first, replies depth first in tweet_id order
+     */
+    List<String> replyThread(long tweetId) {
+        List<String> lines = new ArrayList<>();
+        int tweet = graph.tweetIndex(tweetId);
+        if (tweet < 0) {
+            return lines;
+        }
+        int root = tweet;
+        for (int steps = 0; graph.parent(GraphSnapshot.REPLY, root) >= 0 && steps < graph.tweets; steps++) {
+            root = graph.parent(GraphSnapshot.REPLY, root);
+        }
+        appendThread(lines, root, 0);
+        return lines;
+    }
+
+    /**
+     * Depth first walk with an explicit stack, reply chains can be deeper than the Java stack
+     */
+    private void appendThread(List<String> lines, int root, int rootLevel) {
+        int[] stack = {root};
+        int[] levels = {rootLevel};
+        int top = 1;
+        while (top > 0 && lines.size() < 100000) {
+            int tweet = stack[--top];
+            int level = levels[top];
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < level; i++) {
+                sb.append("  ");
+            }
+            sb.append(graph.tweetId(tweet));
+            if (graph.author(tweet) >= 0) {
+                sb.append(" @").append(graph.userId(graph.author(tweet)));
+            }
+            lines.add(sb.toString());
+            // Pushed last first, so replies come out in tweet_id order
+            int count = graph.childCount(GraphSnapshot.REPLY, tweet);
+            if (top + count > stack.length) {
+                stack = Arrays.copyOf(stack, 2 * (top + count));
+                levels = Arrays.copyOf(levels, stack.length);
+            }
+            for (int i = count - 1; i >= 0; i--) {
+                stack[top] = graph.child(GraphSnapshot.REPLY, tweet, i);
+                levels[top++] = level + 1;
+            }
+        }
+    }
+
+    /**
+     * @return indices of the k largest values, largest first
+     */
+    private static int[] top(int n, int k, IntToDoubleFunction value) {
+        // Sorted insertion into the k best so far, k is small
+        int[] best = new int[Math.min(k, n)];
+        int size = 0;
+        for (int i = 0; i < n; i++) {
+            double v = value.applyAsDouble(i);
+            if (size == best.length && v <= value.applyAsDouble(best[size - 1])) {
+                continue;
+            }
+            int pos = size < best.length ? size++ : size - 1;
+            while (pos > 0 && value.applyAsDouble(best[pos - 1]) < v) {
+                best[pos] = best[pos - 1];
+                pos--;
+            }
+            best[pos] = i;
+        }
+        return best;
+    }
+
+    /**
+     * @param args command line arguments
+     * @param name option name, ex. "--snapshot"
+     * @param defaultValue value if the option is not given
+     * @return value following the option name
+     */
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path file = Paths.get(option(args, "--snapshot", "twitter.graph"));
+        int threads = Integer.parseInt(option(args, "--threads", Integer.toString(Runtime.getRuntime().availableProcessors())));
+        int top = Integer.parseInt(option(args, "--top", "10"));
+        String input = option(args, "--input", null);
+        String url = option(args, "--url", null);
+
+        long start = System.currentTimeMillis();
+        GraphSnapshot graph;
+        if (input != null) {
+            graph = GraphSnapshot.fromFiles(Main.resolveInputFiles(input), file);
+        } else if (url != null) {
+            try (OrientDB orient = new OrientDB(url, OrientDBConfig.defaultConfig());
+                 ODatabaseSession db = orient.open(option(args, "--db", "twitterdb"), option(args, "--user", "root"),
+                         option(args, "--password", "sc16041102"))) {
+                graph = GraphSnapshot.fromDatabase(db, file);
+            }
+        } else {
+            graph = GraphSnapshot.open(file);
+        }
+        System.out.println(String.format("Snapshot %s: %,d tweets, %,d users, %,d retweet, %,d reply, %,d quote edges (%d ms)",
+                file, graph.tweets, graph.users, graph.edgeCount(GraphSnapshot.RETWEET), graph.edgeCount(GraphSnapshot.REPLY),
+                graph.edgeCount(GraphSnapshot.QUOTE), System.currentTimeMillis() - start));
+
+        try (GraphAnalytics analytics = new GraphAnalytics(graph, threads)) {
+            start = System.currentTimeMillis();
+            double[] rank = analytics.pageRank(Integer.parseInt(option(args, "--iterations", "20")), 0.85);
+            System.out.println("PageRank over retweets (" + (System.currentTimeMillis() - start) + " ms):");
+            for (int user : top(graph.users, top, u -> rank[u])) {
+                System.out.println(String.format("  user %d  %.6f", graph.userId(user), rank[user]));
+            }
+
+            start = System.currentTimeMillis();
+            int[][] cascades = analytics.cascades();
+            System.out.println("Largest retweet / quote cascades (" + (System.currentTimeMillis() - start) + " ms):");
+            for (int root : top(graph.tweets, top, t -> cascades[0][t])) {
+                if (cascades[0][root] > 0) {
+                    System.out.println(String.format("  tweet %d  size %,d  depth %d", graph.tweetId(root), cascades[0][root], cascades[1][root]));
+                }
+            }
+
+            start = System.currentTimeMillis();
+            int[][] threadsBySize = analytics.replyThreads();
+            System.out.println("Deepest reply threads (" + (System.currentTimeMillis() - start) + " ms):");
+            // By depth, then by size
+            for (int root : top(graph.tweets, top, t -> threadsBySize[1][t] + threadsBySize[0][t] / (graph.tweets + 1.0))) {
+                if (threadsBySize[0][root] > 0) {
+                    System.out.println(String.format("  tweet %d  size %,d  depth %d", graph.tweetId(root), threadsBySize[0][root], threadsBySize[1][root]));
+                }
+            }
+
+            String thread = option(args, "--thread", null);
+            if (thread != null) {
+                System.out.println("Reply thread of " + thread + ":");
+                for (String line : analytics.replyThread(Long.parseLong(thread))) {
+                    System.out.println("  " + line);
+                }
+            }
+        } finally {
+            graph.close();
+        }
+    }
+}
@@ -0,0 +1,401 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+import org.json.simple.parser.ParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Read-only snapshot of the tweet graph in compressed sparse row form, in a memory-mapped file
+ * Tweets and users are numbered 0..n-1 in tweet_id / user_id order, every array below is indexed by that number:
+ *      tweet ids:          long[tweets], sorted, tweetIndex is a binary search
+ *      user ids:           long[users], sorted
+ *      author:             int[tweets], user of the "post" edge of the tweet, -1 if none
+ * and per relation (RETWEET, REPLY, QUOTE, Tweet -> Tweet, at most one out edge per tweet):
+ *      parent:             int[tweets], target of the out edge of the tweet, -1 if none
+ *      child offsets:      int[tweets + 1], in edges of tweet t are children[offsets[t] .. offsets[t + 1])
+ *      children:           int[edges], source tweets of the in edges, grouped by target
+ *
+ * The arrays live in the page cache, not on the heap, so a snapshot of 100M tweets is opened in milliseconds and
+ * shared by every analytics thread and process. Built from the database (fromDatabase) or straight from the input
+ * files without a database (fromFiles), which gives the graph of a --two-phase import of the same files.
+ * NOTE: each array is mapped on its own and must stay below 2 GB, i.e. 268M tweets
+ */
+public class GraphSnapshot implements Closeable {
+    static final int RETWEET = 0;
+    static final int REPLY = 1;
+    static final int QUOTE = 2;
+    static final String[] RELATIONS = {"retweet", "reply", "quote"};
+
+    private static final int MAGIC = 0x59415347;
+    private static final int HEADER = 4 * (3 + RELATIONS.length);
+
+    private final FileChannel channel;
+    final int tweets;
+    final int users;
+    private final LongBuffer tweetIds;
+    private final LongBuffer userIds;
+    private final IntBuffer author;
+    private final IntBuffer[] parent = new IntBuffer[RELATIONS.length];
+    private final IntBuffer[] childOffsets = new IntBuffer[RELATIONS.length];
+    private final IntBuffer[] children = new IntBuffer[RELATIONS.length];
+
+    private GraphSnapshot(FileChannel channel) throws IOException {
+        this.channel = channel;
+        ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER).order(ByteOrder.LITTLE_ENDIAN);
+        if (header.getInt() != MAGIC) {
+            throw new IOException("not a graph snapshot");
+        }
+        tweets = header.getInt();
+        users = header.getInt();
+        int[] edges = new int[RELATIONS.length];
+        for (int r = 0; r < edges.length; r++) {
+            edges[r] = header.getInt();
+        }
+        long position = HEADER;
+        tweetIds = map(position, 8L * tweets).asLongBuffer();
+        position += 8L * tweets;
+        userIds = map(position, 8L * users).asLongBuffer();
+        position += 8L * users;
+        author = map(position, 4L * tweets).asIntBuffer();
+        position += 4L * tweets;
+        for (int r = 0; r < RELATIONS.length; r++) {
+            parent[r] = map(position, 4L * tweets).asIntBuffer();
+            position += 4L * tweets;
+            childOffsets[r] = map(position, 4L * (tweets + 1)).asIntBuffer();
+            position += 4L * (tweets + 1);
+            children[r] = map(position, 4L * edges[r]).asIntBuffer();
+            position += 4L * edges[r];
+        }
+    }
+
+    private ByteBuffer map(long position, long size) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_ONLY, position, size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Map a snapshot written by fromDatabase or fromFiles
+     * @param file snapshot file
+     */
+    static GraphSnapshot open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+        try {
+            return new GraphSnapshot(channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * @return index of the tweet, -1 if it is not in the snapshot
+     */
+    int tweetIndex(long tweetId) {
+        return search(tweetIds, tweets, tweetId);
+    }
+
+    long tweetId(int tweet) {
+        return tweetIds.get(tweet);
+    }
+
+    long userId(int user) {
+        return userIds.get(user);
+    }
+
+    /**
+     * @return index of the user who posted the tweet, -1 if unknown
+     */
+    int author(int tweet) {
+        return author.get(tweet);
+    }
+
+    /**
+     * @return target of the out edge of given relation, -1 if none
+     */
+    int parent(int relation, int tweet) {
+        return parent[relation].get(tweet);
+    }
+
+    int childCount(int relation, int tweet) {
+        return childOffsets[relation].get(tweet + 1) - childOffsets[relation].get(tweet);
+    }
+
+    /**
+     * @return i-th source tweet of the in edges of given relation
+     */
+    int child(int relation, int tweet, int i) {
+        return children[relation].get(childOffsets[relation].get(tweet) + i);
+    }
+
+    int edgeCount(int relation) {
+        return childOffsets[relation].get(tweets);
+    }
+
+    private static int search(LongBuffer ids, int size, long id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long value = ids.get(mid);
+            if (value < id) {
+                low = mid + 1;
+            } else if (value > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Read Tweet IDs, "post" and tweet to tweet edges from the database and write them as a snapshot
+     * @param db OrientDB TwitterDB connection
+     * @param file snapshot file, replaced if it exists
+     */
+    static GraphSnapshot fromDatabase(ODatabaseSession db, Path file) throws IOException {
+        Builder builder = new Builder();
+        try (OResultSet rs = Statements.query(db, Statements.GRAPH_TWEETS)) {
+            while (rs.hasNext()) {
+                Long tweetId = rs.next().getProperty("tweet_id");
+                if (tweetId != null) {
+                    builder.tweet(tweetId);
+                }
+            }
+        }
+        try (OResultSet rs = Statements.query(db, Statements.GRAPH_POSTS)) {
+            while (rs.hasNext()) {
+                OResult edge = rs.next();
+                Long userId = edge.getProperty("source");
+                Long tweetId = edge.getProperty("target");
+                if (userId != null && tweetId != null) {
+                    builder.post(userId, tweetId);
+                }
+            }
+        }
+        String[] queries = {Statements.GRAPH_RETWEETS, Statements.GRAPH_REPLIES, Statements.GRAPH_QUOTES};
+        for (int r = 0; r < RELATIONS.length; r++) {
+            try (OResultSet rs = Statements.query(db, queries[r])) {
+                while (rs.hasNext()) {
+                    OResult edge = rs.next();
+                    Long from = edge.getProperty("source");
+                    Long to = edge.getProperty("target");
+                    if (from != null && to != null) {
+                        builder.edge(r, from, to);
+                    }
+                }
+            }
+        }
+        return builder.write(file);
+    }
+
+    /**
+     * Decode the input files and write the graph the import would create as a snapshot, without a database
+     * Same rules as Main.handleEachTweet: a retweeted original is a tweet of its own user, an edge whose target
+     * tweet is not in the files is dropped.
+     * @param files Eurovision#.json files
+     * @param file snapshot file, replaced if it exists
+     */
+    static GraphSnapshot fromFiles(List<Path> files, Path file) throws IOException, ParseException {
+        Builder builder = new Builder();
+        TweetDecoder decoder = new TweetDecoder();
+        TweetRecord tweet = new TweetRecord();
+        for (Path input : files) {
+            try (TweetLineReader reader = TweetLineReader.open(input)) {
+                while (reader.next()) {
+                    decoder.decode(reader.buffer(), reader.lineStart(), reader.lineLength(), tweet);
+                    if (tweet.limit) {
+                        continue;
+                    }
+                    builder.tweet(tweet.id);
+                    builder.post(tweet.userId, tweet.id);
+                    if (tweet.hasRetweet) {
+                        TweetRecord retweet = tweet.retweet;
+                        builder.tweet(retweet.id);
+                        builder.post(retweet.userId, retweet.id);
+                        builder.edge(RETWEET, tweet.id, retweet.id);
+                        if (retweet.inReplyToStatusId != -1) {
+                            builder.edge(REPLY, retweet.id, retweet.inReplyToStatusId);
+                        }
+                    }
+                    if (tweet.inReplyToStatusId != -1) {
+                        builder.edge(REPLY, tweet.id, tweet.inReplyToStatusId);
+                    }
+                    if (tweet.quotedStatusId != -1) {
+                        builder.edge(QUOTE, tweet.id, tweet.quotedStatusId);
+                    }
+                }
+            }
+        }
+        return builder.write(file);
+    }
+
+    /**
+     * Growable long array, pairs are stored as two consecutive values
+     */
+    private static final class LongList {
+        private long[] values = new long[1024];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, values.length * 2);
+            }
+            values[size++] = value;
+        }
+
+        /**
+         * @return values sorted without duplicates
+         */
+        long[] sortedUnique() {
+            long[] sorted = Arrays.copyOf(values, size);
+            Arrays.parallelSort(sorted);
+            int unique = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (i == 0 || sorted[i] != sorted[i - 1]) {
+                    sorted[unique++] = sorted[i];
+                }
+            }
+            return Arrays.copyOf(sorted, unique);
+        }
+    }
+
+    /**
+     * Collects IDs and edges on the heap, then numbers them and writes the snapshot file
+     */
+    private static final class Builder {
+        private final LongList tweetIds = new LongList();
+        private final LongList posts = new LongList();
+        private final LongList[] edges = {new LongList(), new LongList(), new LongList()};
+
+        void tweet(long tweetId) {
+            tweetIds.add(tweetId);
+        }
+
+        void post(long userId, long tweetId) {
+            posts.add(userId);
+            posts.add(tweetId);
+        }
+
+        void edge(int relation, long from, long to) {
+            edges[relation].add(from);
+            edges[relation].add(to);
+        }
+
+        GraphSnapshot write(Path file) throws IOException {
+            long[] tweets = tweetIds.sortedUnique();
+            LongList postUsers = new LongList();
+            for (int i = 0; i < posts.size; i += 2) {
+                postUsers.add(posts.values[i]);
+            }
+            long[] users = postUsers.sortedUnique();
+
+            int[] author = new int[tweets.length];
+            Arrays.fill(author, -1);
+            for (int i = 0; i < posts.size; i += 2) {
+                int tweet = Arrays.binarySearch(tweets, posts.values[i + 1]);
+                if (tweet >= 0) {
+                    author[tweet] = Arrays.binarySearch(users, posts.values[i]);
+                }
+            }
+            int[][] parents = new int[RELATIONS.length][];
+            int[][] offsets = new int[RELATIONS.length][];
+            int[][] children = new int[RELATIONS.length][];
+            for (int r = 0; r < RELATIONS.length; r++) {
+                int[] parent = new int[tweets.length];
+                Arrays.fill(parent, -1);
+                LongList pairs = edges[r];
+                for (int i = 0; i < pairs.size; i += 2) {
+                    int from = Arrays.binarySearch(tweets, pairs.values[i]);
+                    int to = Arrays.binarySearch(tweets, pairs.values[i + 1]);
+                    if (from >= 0 && to >= 0 && from != to) {
+                        parent[from] = to;
+                    }
+                }
+                // Children grouped by parent: count, prefix sum, fill
+                int[] offset = new int[tweets.length + 1];
+                for (int p : parent) {
+                    if (p >= 0) {
+                        offset[p + 1]++;
+                    }
+                }
+                for (int t = 0; t < tweets.length; t++) {
+                    offset[t + 1] += offset[t];
+                }
+                int[] child = new int[offset[tweets.length]];
+                int[] next = Arrays.copyOf(offset, tweets.length);
+                for (int t = 0; t < tweets.length; t++) {
+                    if (parent[t] >= 0) {
+                        child[next[parent[t]]++] = t;
+                    }
+                }
+                parents[r] = parent;
+                offsets[r] = offset;
+                children[r] = child;
+            }
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.putInt(MAGIC).putInt(tweets.length).putInt(users.length);
+                for (int[] child : children) {
+                    buffer.putInt(child.length);
+                }
+                write(channel, buffer, tweets);
+                write(channel, buffer, users);
+                write(channel, buffer, author);
+                for (int r = 0; r < RELATIONS.length; r++) {
+                    write(channel, buffer, parents[r]);
+                    write(channel, buffer, offsets[r]);
+                    write(channel, buffer, children[r]);
+                }
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            return open(file);
+        }
+
+        private static void write(FileChannel channel, ByteBuffer buffer, long[] values) throws IOException {
+            for (long value : values) {
+                if (buffer.remaining() < 8) {
+                    drain(channel, buffer);
+                }
+                buffer.putLong(value);
+            }
+        }
+
+        private static void write(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+            for (int value : values) {
+                if (buffer.remaining() < 4) {
+                    drain(channel, buffer);
+                }
+                buffer.putInt(value);
+            }
+        }
+
+        private static void drain(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+}
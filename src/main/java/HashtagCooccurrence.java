@@ -0,0 +1,244 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hashtag co-occurrence index built during the import: how many tweets contain both hashtags of a pair
+ * Schema (class HashtagPair, each pair stored in both directions so one index answers "tags used with X"):
+ *      hashtag (string):   normalized hashtag
+ *      other (string):     normalized hashtag used in the same tweet
+ *      uses (long):        number of tweets with both hashtags
+ * Unique hash index on (hashtag, other), NOTUNIQUE index on hashtag.
+ *
+ * A new Tweet vertex adds its pairs to the pending pairs of its thread, which LISTENER adds to HashtagPair in the batch
+ * transaction itself, one UPSERT per pair and direction for the whole batch: the pairs are stored exactly when their
+ * tweets are. Hashtags are numbered by a dictionary, a pair is one long (both numbers, smaller first) in a primitive
+ * open addressing table, so counting a tweet allocates nothing.
+ * NOTE: the pairs of the busiest hashtags are in almost every batch, concurrent writers would conflict on them on every
+ *       commit, even --partitioned ones, and replay their batches: Main keeps the index to single writer imports.
+ */
+public class HashtagCooccurrence {
+    static final String HASHTAG_PAIR = "HashtagPair";
+
+    /**
+     * Open addressing long -> long table, 0 is the empty key (no pair has two hashtags numbered 0)
+     * The slots in use are listed in insertion order, so reading and clearing a batch touch its pairs only, not the
+     * whole table grown by the largest batch.
+     */
+    static final class PairCounter {
+        private long[] keys = new long[256];
+        private long[] counts = new long[256];
+        private int[] used = new int[256];
+        private int size;
+
+        void add(long key, long delta) {
+            int mask = keys.length - 1;
+            int slot = (int) (mix(key) & mask);
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == 0) {
+                keys[slot] = key;
+                used[size++] = slot;
+                if (size * 2 > keys.length) {
+                    counts[slot] = delta;
+                    grow();
+                    return;
+                }
+            }
+            counts[slot] += delta;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            long[] oldCounts = counts;
+            int[] oldUsed = used;
+            int oldSize = size;
+            keys = new long[oldKeys.length * 2];
+            counts = new long[oldKeys.length * 2];
+            used = new int[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldSize; i++) {
+                add(oldKeys[oldUsed[i]], oldCounts[oldUsed[i]]);
+            }
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @param i 0 to size() - 1
+         * @return key of the i-th pair added
+         */
+        long key(int i) {
+            return keys[used[i]];
+        }
+
+        /**
+         * @param i 0 to size() - 1
+         * @return count of the i-th pair added
+         */
+        long count(int i) {
+            return counts[used[i]];
+        }
+
+        void clear() {
+            for (int i = 0; i < size; i++) {
+                keys[used[i]] = 0;
+                counts[used[i]] = 0;
+            }
+            size = 0;
+        }
+
+        private static long mix(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return key ^ (key >>> 32);
+        }
+    }
+
+    // Hashtag dictionary, numbers start at 1 so no pair key is 0
+    private static final Map<String, Integer> ids = new HashMap<>();
+    private static final List<String> names = new ArrayList<>(Arrays.asList((String) null));
+
+    private static final ThreadLocal<PairCounter> pending = ThreadLocal.withInitial(PairCounter::new);
+    private static final ThreadLocal<int[]> tweetIds = ThreadLocal.withInitial(() -> new int[16]);
+
+    /**
+     * Adds the pairs of this thread to HashtagPair in its batch transaction
+     */
+    static final TransactionListeners.Listener LISTENER = new TransactionListeners.Listener() {
+        @Override
+        public void beforeCommit(TransactionListeners.StatementWriter writer) {
+            PairCounter counter = pending.get();
+            for (int i = 0; i < counter.size(); i++) {
+                long key = counter.key(i);
+                String a = name((int) (key >>> 32));
+                String b = name((int) key);
+                writer.add(Statements.ADD_PAIR_USES, a, b, counter.count(i), a, b);
+                writer.add(Statements.ADD_PAIR_USES, b, a, counter.count(i), b, a);
+            }
+        }
+
+        @Override
+        public void committed() {
+            pending.get().clear();
+        }
+
+        @Override
+        public void discarded() {
+            pending.get().clear();
+        }
+    };
+
+    /**
+     * Create class HashtagPair and its indexes if missing, must run outside of a transaction
+     * @param db OrientDB TwitterDB connection
+     */
+    static void createSchema(ODatabaseSession db) {
+        OClass pair = db.getClass(HASHTAG_PAIR);
+        if (pair == null) {
+            pair = db.createClass(HASHTAG_PAIR);
+        }
+        if (pair.getProperty("hashtag") == null) {
+            pair.createProperty("hashtag", OType.STRING);
+            pair.createProperty("other", OType.STRING);
+            pair.createProperty("uses", OType.LONG);
+            pair.createIndex("HashtagPair_hashtag_other_index", OClass.INDEX_TYPE.UNIQUE_HASH_INDEX, "hashtag", "other");
+            pair.createIndex("HashtagPair_hashtag_index", OClass.INDEX_TYPE.NOTUNIQUE, "hashtag");
+        }
+    }
+
+    private static synchronized int id(String hashtag) {
+        Integer id = ids.get(hashtag);
+        if (id == null) {
+            id = names.size();
+            ids.put(hashtag, id);
+            names.add(hashtag);
+        }
+        return id;
+    }
+
+    private static synchronized String name(int id) {
+        return names.get(id);
+    }
+
+    private static long key(int a, int b) {
+        return a < b ? (long) a << 32 | b : (long) b << 32 | a;
+    }
+
+    /**
+     * Count every pair of distinct hashtags of a new Tweet vertex in the current transaction
+     * @param hashtags normalized hashtags of the tweet, duplicates are counted once
+     */
+    static void tweet(List<String> hashtags) {
+        if (hashtags.size() < 2) {
+            return;
+        }
+        int[] tags = tweetIds.get();
+        if (tags.length < hashtags.size()) {
+            tags = new int[hashtags.size()];
+            tweetIds.set(tags);
+        }
+        int count = 0;
+        for (String hashtag : hashtags) {
+            int id = id(hashtag);
+            boolean duplicate = false;
+            for (int i = 0; i < count && !duplicate; i++) {
+                duplicate = tags[i] == id;
+            }
+            if (!duplicate) {
+                tags[count++] = id;
+            }
+        }
+        PairCounter counter = pending.get();
+        for (int i = 0; i < count; i++) {
+            for (int j = i + 1; j < count; j++) {
+                counter.add(key(tags[i], tags[j]), 1);
+            }
+        }
+    }
+
+    /**
+     * @param db OrientDB TwitterDB connection
+     * @param hashtag normalized hashtag
+     * @param other normalized hashtag
+     * @return number of tweets with both hashtags, one index lookup
+     */
+    static long pairUses(ODatabaseSession db, String hashtag, String other) {
+        try (OResultSet rs = Statements.query(db, Statements.PAIR_USES, hashtag, other)) {
+            if (!rs.hasNext()) {
+                return 0;
+            }
+            Long value = rs.next().getProperty("uses");
+            return value == null ? 0 : value;
+        }
+    }
+
+    /**
+     * Hashtags used most often together with given one
+     * Reads the HashtagPair records of the hashtag through its index, no Tweet vertex or edge.
+     * @param db OrientDB TwitterDB connection
+     * @param hashtag normalized hashtag
+     * @param limit number of hashtags
+     * @return "other=uses", most used first
+     */
+    static List<String> topCooccurring(ODatabaseSession db, String hashtag, int limit) {
+        List<String> top = new ArrayList<>();
+        try (OResultSet rs = Statements.query(db, Statements.TOP_PAIRS, hashtag, limit)) {
+            while (rs.hasNext()) {
+                OResult result = rs.next();
+                top.add(result.getProperty("other") + "=" + result.getProperty("uses"));
+            }
+        }
+        return top;
+    }
+}
@@ -0,0 +1,76 @@
+import com.orientechnologies.orient.core.id.ORID;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache from normalized hashtag name to the record ID of its Hashtag vertex
+ * Hashtags are strings, so they cannot share the primitive table of LongRidCache, but the
+ * vocabulary is small compared with tweets and users and an access ordered map is enough.
+ * NOTE: methods are synchronized so one cache can be shared by several writer sessions
+ */
+public class HashtagRidCache {
+    private final int capacity;
+    private final LinkedHashMap<String, ORID> map;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity maximum number of cached hashtags
+     */
+    public HashtagRidCache(int capacity) {
+        this.capacity = capacity;
+        this.map = new LinkedHashMap<String, ORID>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ORID> eldest) {
+                if (size() > HashtagRidCache.this.capacity) {
+                    evictions++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param hashtag given hashtag name
+     * @return cached record ID, null if not cached
+     */
+    public synchronized ORID get(String hashtag) {
+        ORID rid = map.get(hashtag);
+        if (rid == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return rid;
+    }
+
+    /**
+     * @param hashtag given hashtag name
+     * @param rid record ID of the Hashtag vertex
+     */
+    public synchronized void put(String hashtag, ORID rid) {
+        map.put(hashtag, rid);
+    }
+
+    /**
+     * Drop every entry, counters are kept
+     */
+    public synchronized void clear() {
+        map.clear();
+    }
+
+    /**
+     * @param name label of the cache for printing
+     * @return one line summary of capacity and hit/miss/eviction counters
+     */
+    public synchronized String stats(String name) {
+        long total = hits + misses;
+        double rate = total == 0 ? 0.0 : 100.0 * hits / total;
+        return String.format("%s cache: capacity=%d hits=%d misses=%d evictions=%d hit rate=%.1f%%",
+                name, capacity, hits, misses, evictions, rate);
+    }
+}
@@ -0,0 +1,70 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Where the hashtags of a tweet are stored (--hashtag-storage)
+ * Modes:
+ *      VERTEX:     one Hashtag vertex per hashtag and a "contain" edge from each Tweet, the original model: a lookup
+ *                  of the Hashtag per occurrence, and every edge writes the Tweet and the (hot) Hashtag record
+ *      EMBEDDED:   an EMBEDDEDLIST "hashtag" property of the Tweet, distinct normalized hashtags, with a NOTUNIQUE
+ *                  index on its items (Tweet_hashtag_index): no lookup, no edge, one record written per tweet
+ * tweetIds answers "tweets with this hashtag" in either mode, see bench.HashtagStorageBenchmark.
+ * NOTE: EMBEDDED creates no Hashtag vertex and no "contain" edge, traversals over them find nothing. The aggregate
+ *       counters and HashtagCooccurrence do not depend on the mode.
+ */
+public enum HashtagStorage {
+    VERTEX,
+    EMBEDDED;
+
+    /**
+     * Create the list property of EMBEDDED and its index if missing, must run outside of a transaction
+     * @param db OrientDB TwitterDB connection
+     */
+    void createSchema(ODatabaseSession db) {
+        if (this != EMBEDDED) {
+            return;
+        }
+        OClass tweet = db.getClass("Tweet");
+        if (tweet.getProperty("hashtag") == null) {
+            tweet.createProperty("hashtag", OType.EMBEDDEDLIST, OType.STRING);
+        }
+        if (tweet.getClassIndex("Tweet_hashtag_index") == null) {
+            tweet.createIndex("Tweet_hashtag_index", OClass.INDEX_TYPE.NOTUNIQUE, "hashtag");
+        }
+    }
+
+    /**
+     * @param hashtags normalized hashtags of a tweet, in order
+     * @return value of the "hashtag" property, every hashtag once
+     */
+    static List<String> distinct(List<String> hashtags) {
+        List<String> list = new ArrayList<>(hashtags.size());
+        for (String hashtag : hashtags) {
+            if (!list.contains(hashtag)) {
+                list.add(hashtag);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @param db OrientDB TwitterDB connection
+     * @param hashtag normalized hashtag
+     * @return tweet_id of every tweet with the hashtag, through the Hashtag vertex and its "contain" edges, or
+     *         through Tweet_hashtag_index
+     */
+    List<Long> tweetIds(ODatabaseSession db, String hashtag) {
+        List<Long> ids = new ArrayList<>();
+        try (OResultSet rs = Statements.query(db, this == VERTEX ? Statements.HASHTAG_TWEETS : Statements.EMBEDDED_HASHTAG_TWEETS, hashtag)) {
+            while (rs.hasNext()) {
+                ids.add(rs.next().getProperty("tweet_id"));
+            }
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,98 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+import java.nio.file.Path;
+
+/**
+ * Position of the import of one input file, stored in the database itself
+ * Schema (class ImportCheckpoint, one document per file):
+ *      file (string):          normalized absolute path of the file, see key
+ *      byte_offset (long):     first byte after the last committed line, see TweetLineReader.offset()
+ *      line_number (long):     number of lines before byte_offset
+ *      batch_number (long):    number of committed batches of this file
+ *
+ * The checkpoint is saved by the transaction that commits the batch, so it never points before or past data that
+ * is really in the database: after a crash the import reopens the file at byte_offset and no batch is replayed.
+ */
+public class ImportCheckpoint {
+    static final String CLASS = "ImportCheckpoint";
+
+    final String file;
+    long offset;
+    long line;
+    long batch;
+
+    ImportCheckpoint(String file, long offset, long line, long batch) {
+        this.file = file;
+        this.offset = offset;
+        this.line = line;
+        this.batch = batch;
+    }
+
+    /**
+     * Create class and unique index of checkpoints if missing, must run outside of a transaction
+     * @param db OrientDB TwitterDB connection
+     */
+    static void createSchema(ODatabaseSession db) {
+        OClass checkpoint = db.getClass(CLASS);
+        if (checkpoint == null) {
+            checkpoint = db.createClass(CLASS);
+        }
+        if (checkpoint.getProperty("file") == null) {
+            checkpoint.createProperty("file", OType.STRING);
+            checkpoint.createIndex("ImportCheckpoint_file_index", OClass.INDEX_TYPE.UNIQUE_HASH_INDEX, "file");
+        }
+        if (checkpoint.getProperty("byte_offset") == null) {
+            checkpoint.createProperty("byte_offset", OType.LONG);
+        }
+        if (checkpoint.getProperty("line_number") == null) {
+            checkpoint.createProperty("line_number", OType.LONG);
+        }
+        if (checkpoint.getProperty("batch_number") == null) {
+            checkpoint.createProperty("batch_number", OType.LONG);
+        }
+    }
+
+    /**
+     * @param file input file
+     * @return checkpoint key of the file, its normalized absolute path: files with the same name in two directories
+     *         have their own checkpoints
+     */
+    static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * @param db OrientDB TwitterDB connection
+     * @param file checkpoint key of the file
+     * @return last committed checkpoint of the file, start of the file if it was never imported
+     */
+    static ImportCheckpoint load(ODatabaseSession db, String file) {
+        try (OResultSet rs = Statements.query(db, Statements.CHECKPOINT, file)) {
+            if (!rs.hasNext()) {
+                return new ImportCheckpoint(file, 0, 0, 0);
+            }
+            OResult result = rs.next();
+            long offset = result.getProperty("byte_offset");
+            long line = result.getProperty("line_number");
+            long batch = result.getProperty("batch_number");
+            return new ImportCheckpoint(file, offset, line, batch);
+        }
+    }
+
+    /**
+     * Store this checkpoint, call inside the transaction of the batch it follows
+     * @param db OrientDB TwitterDB connection
+     */
+    void save(ODatabaseSession db) {
+        Statements.command(db, Statements.SAVE_CHECKPOINT, file, offset, line, batch, file);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: batch %d, line %d, byte %d", file, batch, line, offset);
+    }
+}
@@ -0,0 +1,290 @@
+import com.orientechnologies.orient.core.db.ODatabasePool;
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Multi-threaded import of Eurovision#.json files
+ * Stages:
+ *      reader (1 thread):      reads tweet lines of every file as raw bytes, groups them into batches of batchSize lines,
+ *                              the records of a TweetLog are decoded by the reader and skip the parsers
+ *      parsers (N threads):    decode every line of a batch to a TweetRecord
+ *      writers (M threads):    each holds one ODatabasePool session and commits a batch per transaction, or hands
+ *                              batches to an ImportSink shared by all writers (--sink memory|null)
+ *
+ * With an EdgeRouter (--partitioned) every writer has its own queue: parsers send a tweet to writer
+ * partition(user_id), and each writer also attaches the routed contain / retweet edges it owns (see EdgeRouter).
+ * A writer that reached the end of input waits for the others before attaching its last edges.
+ *
+ * Stages are connected by bounded queues, so a fast reader blocks instead of filling the heap when writers fall behind.
+ * The end of input is passed down as an empty batch, one per consumer of the next stage.
+ * On the first failure every stage is interrupted and the error is rethrown from run().
+ * NOTE: writers share the record ID caches of Main (committed record IDs only), and two writers may race to create
+ *       the same User or Hashtag vertex: the losing commit fails on the unique key index and is replayed by
+ *       Main.runInTransaction. Main requires those indexes before it starts more than one writer
+ *       (IndexProfile.requireUniqueKeys).
+ *       Batches commit out of order, so a reply or quote whose target is written by another writer may lose its edge.
+ *       Without an EdgeRouter, writers adding edges to the same popular Hashtag, User or Tweet vertex conflict and
+ *       replay their batches.
+ */
+public class ImportPipeline {
+    // End of input marker, compared by reference
+    private static final List<byte[]> END_OF_LINES = new ArrayList<>();
+    private static final List<TweetRecord> END_OF_TWEETS = new ArrayList<>();
+
+    private final ODatabasePool pool;
+    // Shared by every writer when there is no pool
+    private final ImportSink sink;
+    private final int parsers;
+    private final int writers;
+    private final int batchSize;
+    private final EdgeRouter router;
+
+    private final BlockingQueue<List<byte[]>> lineQueue;
+    // One queue shared by all writers, or one per writer with a router
+    private final List<BlockingQueue<List<TweetRecord>>> tweetQueues = new ArrayList<>();
+    private final CountDownLatch writersDone;
+    private final AtomicInteger runningParsers = new AtomicInteger();
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * @param pool pool of OrientDB TwitterDB sessions, should allow at least writers sessions
+     * @param parsers number of JSON decoding threads
+     * @param writers number of database writing threads
+     * @param batchSize number of tweets per batch and per transaction
+     * @param queueCapacity number of batches each queue holds before its producer blocks
+     */
+    public ImportPipeline(ODatabasePool pool, int parsers, int writers, int batchSize, int queueCapacity) {
+        this(pool, parsers, writers, batchSize, queueCapacity, null);
+    }
+
+    /**
+     * @param pool pool of OrientDB TwitterDB sessions, should allow at least writers sessions
+     * @param parsers number of JSON decoding threads
+     * @param writers number of database writing threads
+     * @param batchSize number of tweets per batch and per transaction
+     * @param queueCapacity number of batches each queue holds before its producer blocks
+     * @param router partitions of writers, also set as Main.edgeRouter, null for a shared queue
+     */
+    public ImportPipeline(ODatabasePool pool, int parsers, int writers, int batchSize, int queueCapacity, EdgeRouter router) {
+        this(pool, null, parsers, writers, batchSize, queueCapacity, router);
+    }
+
+    /**
+     * @param sink destination of every batch, called by all writers concurrently
+     * @param parsers number of JSON decoding threads
+     * @param writers number of writing threads
+     * @param batchSize number of tweets per batch
+     * @param queueCapacity number of batches each queue holds before its producer blocks
+     */
+    public ImportPipeline(ImportSink sink, int parsers, int writers, int batchSize, int queueCapacity) {
+        this(null, sink, parsers, writers, batchSize, queueCapacity, null);
+    }
+
+    private ImportPipeline(ODatabasePool pool, ImportSink sink, int parsers, int writers, int batchSize, int queueCapacity, EdgeRouter router) {
+        this.pool = pool;
+        this.sink = sink;
+        this.parsers = parsers;
+        this.writers = writers;
+        this.batchSize = batchSize;
+        this.router = router;
+        this.lineQueue = new ArrayBlockingQueue<>(queueCapacity);
+        for (int i = 0; i < (router == null ? 1 : writers); i++) {
+            tweetQueues.add(new ArrayBlockingQueue<>(queueCapacity));
+        }
+        this.writersDone = new CountDownLatch(writers);
+    }
+
+    /**
+     * Import given files and wait until every batch is committed
+     * @param files Eurovision#.json or .tweetlog files, read in the given order
+     */
+    public void run(List<Path> files) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(1 + parsers + writers);
+        runningParsers.set(parsers);
+        executor.submit(() -> stage(executor, () -> readFiles(files)));
+        for (int i = 0; i < parsers; i++) {
+            executor.submit(() -> stage(executor, this::parseLines));
+        }
+        for (int i = 0; i < writers; i++) {
+            int partition = i;
+            executor.submit(() -> stage(executor, () -> writeTweets(partition)));
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+
+        Throwable error = failure.get();
+        if (error instanceof Exception) {
+            throw (Exception) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    private interface Stage {
+        void run() throws Exception;
+    }
+
+    /**
+     * Run one stage, the first failure is kept and stops all other stages
+     */
+    private void stage(ExecutorService executor, Stage stage) {
+        try {
+            stage.run();
+        } catch (InterruptedException e) {
+            // stopped because another stage failed
+        } catch (Throwable e) {
+            if (failure.compareAndSet(null, e)) {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * Reader stage, lines are copied out of the reader buffer but not decoded to String
+     * A TweetLog needs no parser, its records are decoded here and sent to the writers directly.
+     */
+    private void readFiles(List<Path> files) throws Exception {
+        List<byte[]> batch = new ArrayList<>(batchSize);
+        List<List<TweetRecord>> partitions = newPartitions();
+        for (Path file : files) {
+            if (TweetLog.isTweetLog(file)) {
+                try (TweetLog.Reader reader = TweetLog.Reader.open(file)) {
+                    while (true) {
+                        TweetRecord tweet = new TweetRecord();
+                        long start = System.nanoTime();
+                        if (!reader.next(tweet)) {
+                            break;
+                        }
+                        IngestMetrics.record(IngestMetrics.Stage.DECODE, start);
+                        dispatch(partitions, tweet);
+                    }
+                }
+                continue;
+            }
+            try (TweetLineReader reader = TweetLineReader.open(file)) {
+                while (reader.next()) {
+                    int start = reader.lineStart();
+                    batch.add(Arrays.copyOfRange(reader.buffer(), start, start + reader.lineLength()));
+                    if (batch.size() >= batchSize) {
+                        lineQueue.put(batch);
+                        batch = new ArrayList<>(batchSize);
+                    }
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            lineQueue.put(batch);
+        }
+        dispatchRemaining(partitions);
+        for (int i = 0; i < parsers; i++) {
+            lineQueue.put(END_OF_LINES);
+        }
+    }
+
+    /**
+     * Parser stage, the last parser to finish tells every writer to stop
+     * With a router the tweets are collected per writer until a batch is full.
+     */
+    private void parseLines() throws Exception {
+        TweetDecoder decoder = new TweetDecoder();
+        List<List<TweetRecord>> partitions = newPartitions();
+        List<byte[]> lines;
+        while ((lines = lineQueue.take()) != END_OF_LINES) {
+            for (byte[] line : lines) {
+                TweetRecord tweet = new TweetRecord();
+                long start = System.nanoTime();
+                decoder.decode(line, 0, line.length, tweet);
+                IngestMetrics.record(IngestMetrics.Stage.DECODE, start);
+                dispatch(partitions, tweet);
+            }
+        }
+        dispatchRemaining(partitions);
+        if (runningParsers.decrementAndGet() == 0) {
+            for (int i = 0; i < writers; i++) {
+                tweetQueues.get(router == null ? 0 : i).put(END_OF_TWEETS);
+            }
+        }
+    }
+
+    /**
+     * @return one batch being filled per tweet queue
+     */
+    private List<List<TweetRecord>> newPartitions() {
+        List<List<TweetRecord>> partitions = new ArrayList<>();
+        for (int i = 0; i < tweetQueues.size(); i++) {
+            partitions.add(new ArrayList<>(batchSize));
+        }
+        return partitions;
+    }
+
+    /**
+     * Add a decoded tweet to the batch of its writer, a full batch is queued
+     */
+    private void dispatch(List<List<TweetRecord>> partitions, TweetRecord tweet) throws InterruptedException {
+        int partition = router == null ? 0 : router.partition(tweet.userId);
+        partitions.get(partition).add(tweet);
+        if (partitions.get(partition).size() >= batchSize) {
+            tweetQueues.get(partition).put(partitions.get(partition));
+            partitions.set(partition, new ArrayList<>(batchSize));
+        }
+    }
+
+    /**
+     * Queue the batches that are not full at the end of input
+     */
+    private void dispatchRemaining(List<List<TweetRecord>> partitions) throws InterruptedException {
+        for (int i = 0; i < partitions.size(); i++) {
+            if (!partitions.get(i).isEmpty()) {
+                tweetQueues.get(i).put(partitions.get(i));
+                partitions.set(i, new ArrayList<>(batchSize));
+            }
+        }
+    }
+
+    /**
+     * Writer stage, one pooled session per thread or the shared sink
+     * @param partition index of the writer, its queue and routed edges with a router
+     */
+    private void writeTweets(int partition) throws Exception {
+        if (pool == null) {
+            BlockingQueue<List<TweetRecord>> tweetQueue = tweetQueues.get(0);
+            List<TweetRecord> tweets;
+            while ((tweets = tweetQueue.take()) != END_OF_TWEETS) {
+                sink.write(tweets, null);
+            }
+            return;
+        }
+        try (ODatabaseSession db = pool.acquire()) {
+            Main.prepareSession(db);
+            if (router != null) {
+                router.bind(partition);
+            }
+            BlockingQueue<List<TweetRecord>> tweetQueue = tweetQueues.get(router == null ? 0 : partition);
+            List<TweetRecord> tweets;
+            while ((tweets = tweetQueue.take()) != END_OF_TWEETS) {
+                Main.importBatch(db, tweets);
+                if (router != null) {
+                    router.attach(db, partition, false);
+                }
+            }
+            if (router != null) {
+                // Edges routed to this writer by the others until they end
+                writersDone.countDown();
+                writersDone.await();
+                router.attach(db, partition, true);
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Destination of the vertices and edges Main.handleEachTweet decides to write (--sink)
+ * Implementations:
+ *      Main.OrientDBSink:  an OrientDB session, remote or embedded depending on --url, the actual import
+ *      MemoryGraphSink:    a graph of plain Java objects, the import without the database
+ *      NullSink:           writes nothing and finds nothing, the ceiling of reading, decoding and batching
+ * Comparing the throughput of the same input into each sink tells how much of the import time the database takes.
+ * handleEachTweet asks has* before creating a vertex; an edge is only created once between the same vertices,
+ * whatever the number of calls, and is dropped (IngestMetrics.droppedEdge) if one of its vertices does not exist.
+ * NOTE: the methods of a sink shared by several writers are called concurrently.
+ */
+public interface ImportSink {
+
+    /**
+     * Write a group of tweets through Main.handleEachTweet, then the checkpoint after it
+     * @param batch decoded tweets of this group
+     * @param checkpoint position after the last line of batch, null if not checkpointed
+     */
+    void write(List<TweetRecord> batch, ImportCheckpoint checkpoint);
+
+    /**
+     * @param tweetId given tweet_id
+     * @return true for Tweet in the sink, false o.w.
+     */
+    boolean hasTweet(long tweetId);
+
+    /**
+     * @param userId given user_id
+     * @return true for User in the sink, false o.w.
+     */
+    boolean hasUser(long userId);
+
+    /**
+     * @param hashtag given normalized hashtag
+     * @return true for Hashtag in the sink, false o.w.
+     */
+    boolean hasHashtag(String hashtag);
+
+    /**
+     * Create a Tweet vertex, see Main.createTweetVertex for the properties
+     * @param hashtags hashtags stored in the Tweet with HashtagStorage.EMBEDDED, null for none
+     */
+    void createTweet(long tweetId, Date createAt, String text, long userId, String geo, long retweetId, long replyId, long quoteId, List<String> hashtags);
+
+    /**
+     * Create a User vertex, see Main.createUserVertex for the properties
+     */
+    void createUser(long userId, String screenName, String country, boolean verified);
+
+    /**
+     * Create a Hashtag vertex
+     * @param hashtag normalized hashtag
+     */
+    void createHashtag(String hashtag);
+
+    void createPostEdge(long userId, long tweetId);
+
+    void createRetweetEdge(long tweetId, long retweetId);
+
+    void createReplyEdge(long tweetId, long replyId);
+
+    void createQuoteEdge(long tweetId, long quoteId);
+
+    void createContainEdge(long tweetId, String hashtag);
+
+    /**
+     * Set reply_id of a Tweet already in the sink
+     * @param tweetId tweet_id of the tweet
+     * @param replyId tweet_id of the replied tweet
+     */
+    void updateReplyId(long tweetId, long replyId);
+
+    /**
+     * Set quote_id of a Tweet already in the sink
+     * @param tweetId tweet_id of the tweet
+     * @param quoteId tweet_id of the quoted tweet
+     */
+    void updateQuoteId(long tweetId, long quoteId);
+}
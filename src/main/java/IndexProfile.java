@@ -0,0 +1,114 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+
+/**
+ * Which indexes createDataBase puts on Tweet, User and Hashtag, and when
+ * Profiles:
+ *      ALL:        unique hash index on the keys, NOTUNIQUE SB-tree index on every other property (the original schema
+ *                  had NOTUNIQUE keys too, which let two sessions create the same vertex)
+ *      SELECTIVE:  unique hash index on the keys, NOTUNIQUE SB-tree on the selective secondary properties
+ *      KEYS:       unique hash index on the keys only
+ *      DEFERRED:   KEYS during the load, the SELECTIVE secondary indexes are built by buildDeferred after the load
+ *
+ * Index roles:
+ *      KEY:        tweet_id, user_id, hashtag, looked up for every tweet
+ *      SECONDARY:  selective properties worth a range / lookup index
+ *      LOW:        low selectivity (User.verified, Tweet.geo) or large strings (Tweet.text), only indexed by ALL
+ * NOTE: an index that already exists under the same name is left as it is
+ */
+public enum IndexProfile {
+    ALL,
+    SELECTIVE,
+    KEYS,
+    DEFERRED;
+
+    private enum Role {
+        KEY,
+        SECONDARY,
+        LOW
+    }
+
+    /**
+     * Index name, class, property, role; names are the ones of the original schema
+     */
+    private static final Object[][] INDEXES = {
+            {"Tweet_id_index", "Tweet", "tweet_id", Role.KEY},
+            {"Create_at_index", "Tweet", "create_at", Role.SECONDARY},
+            {"Text_index", "Tweet", "text", Role.LOW},
+            {"Tweet_user_id_index", "Tweet", "user_id", Role.SECONDARY},
+            {"Geo_index", "Tweet", "geo", Role.LOW},
+            {"Retweet_id_index", "Tweet", "retweet_id", Role.SECONDARY},
+            {"Reply_id_index", "Tweet", "reply_id", Role.SECONDARY},
+            {"Quote_id_index", "Tweet", "quote_id", Role.SECONDARY},
+            {"User_id_index", "User", "user_id", Role.KEY},
+            {"Screen_name_index", "User", "screen_name", Role.SECONDARY},
+            {"Country_index", "User", "country", Role.SECONDARY},
+            {"Verified_index", "User", "verified", Role.LOW},
+            {"Hashtag_index", "Hashtag", "hashtag", Role.KEY},
+    };
+
+    /**
+     * Create the indexes this profile needs during the load, call after the classes and properties exist
+     * @param db OrientDB TwitterDB connection
+     */
+    public void createIndexes(ODatabaseSession db) {
+        for (Object[] index : INDEXES) {
+            Role role = (Role) index[3];
+            OClass.INDEX_TYPE type = null;
+            if (role == Role.KEY) {
+                type = OClass.INDEX_TYPE.UNIQUE_HASH_INDEX;
+            } else if (this == ALL || (role == Role.SECONDARY && this == SELECTIVE)) {
+                type = OClass.INDEX_TYPE.NOTUNIQUE;
+            }
+            if (type != null) {
+                createIndex(db, index, type);
+            }
+        }
+    }
+
+    /**
+     * Build the indexes left out during the load, only DEFERRED has any
+     * Building an index once over the loaded data is much cheaper than updating it on every insert.
+     * @param db OrientDB TwitterDB connection
+     */
+    public void buildDeferred(ODatabaseSession db) {
+        if (this != DEFERRED) {
+            return;
+        }
+        for (Object[] index : INDEXES) {
+            if (index[3] == Role.SECONDARY) {
+                createIndex(db, index, OClass.INDEX_TYPE.NOTUNIQUE);
+            }
+        }
+    }
+
+    /**
+     * Make sure tweet_id, user_id and hashtag have a unique index, as concurrent writers need: two writers creating the
+     * same vertex then conflict on commit and the loser replays its batch, instead of both vertices being kept
+     * A missing key index is created, a NOTUNIQUE one is an error, the database may already hold duplicates
+     * @param db OrientDB TwitterDB connection, outside of a transaction
+     */
+    public static void requireUniqueKeys(ODatabaseSession db) {
+        for (Object[] index : INDEXES) {
+            if (index[3] != Role.KEY) {
+                continue;
+            }
+            OIndex<?> existing = db.getClass((String) index[1]).getClassIndex((String) index[0]);
+            if (existing == null) {
+                createIndex(db, index, OClass.INDEX_TYPE.UNIQUE_HASH_INDEX);
+            } else if (!existing.isUnique()) {
+                throw new IllegalStateException(index[0] + " is " + existing.getType() + ", concurrent writers need a unique index on "
+                        + index[1] + "." + index[2] + ": drop it and remove duplicates, or import with one writer");
+            }
+        }
+    }
+
+    private static void createIndex(ODatabaseSession db, Object[] index, OClass.INDEX_TYPE type) {
+        String name = (String) index[0];
+        OClass oClass = db.getClass((String) index[1]);
+        if (oClass.getClassIndex(name) == null) {
+            oClass.createIndex(name, type, (String) index[2]);
+        }
+    }
+}
@@ -0,0 +1,333 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counters and latency histograms of the import, shared by every thread
+ * Stages:
+ *      DECODE:     one tweet line to a TweetRecord
+ *      LOOKUP:     find*Vertex, record ID cache and index query
+ *      VERTEX:     create and save one Tweet, User or Hashtag vertex
+ *      EDGE:       create one edge, including the check for an existing one
+ *      PATCH:      coalesced reply_id / quote_id updates of tweets that were already imported, one per batch with patches
+ *      COMMIT:     commit of one batch transaction
+ *      SCRIPT:     prefetch and batch script of one batch in --script mode
+ *      FOLLOW:     read of the first line of a micro-batch to its commit in --follow mode, the ingest latency
+ * Latencies are also kept per SQL statement text, see Statements.
+ *
+ * Every stage is also committed as a JFR event (yas.Stage, and yas.Tweet around handleEachTweet), recorded with
+ * e.g. java -XX:StartFlightRecording=filename=import.jfr,settings=profile ... Main
+ * NOTE: histograms have power of two buckets, percentiles are upper bounds within a factor of 2
+ */
+public class IngestMetrics {
+    enum Stage {
+        DECODE,
+        LOOKUP,
+        VERTEX,
+        EDGE,
+        PATCH,
+        COMMIT,
+        SCRIPT,
+        FOLLOW
+    }
+
+    private static final Map<Stage, Histogram> stages = new EnumMap<>(Stage.class);
+    private static final Map<String, Histogram> queries = new ConcurrentHashMap<>();
+    private static final Map<String, LongAdder> droppedEdges = new ConcurrentHashMap<>();
+    // Drops of the current transaction of each thread, counted only if the transaction commits
+    private static final ThreadLocal<Map<String, Long>> pendingDrops = ThreadLocal.withInitial(HashMap::new);
+    private static final LongAdder tweets = new LongAdder();
+    private static final LongAdder batches = new LongAdder();
+    private static final LongAdder replays = new LongAdder();
+    private static final long startNanos = System.nanoTime();
+    private static ScheduledExecutorService progress = null;
+    // Followed sources, {bytes not imported yet (-1 unknown), created_at lag of the last imported tweet in ms}
+    private static final Map<String, LongSupplier[]> lags = new ConcurrentHashMap<>();
+
+    // Looked up once, an event is only allocated while a recording enables it
+    private static final EventType STAGE_EVENTS = EventType.getEventType(StageEvent.class);
+    private static final EventType TWEET_EVENTS = EventType.getEventType(TweetEvent.class);
+
+    static {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new Histogram());
+        }
+    }
+
+    /**
+     * Record one execution of a stage
+     * The StageEvent is committed at the end of the stage, its duration is the "nanos" field: a stage such as FOLLOW
+     * starts in another thread, where no event can begin.
+     * @param stage stage of the import
+     * @param start System.nanoTime() when the stage started
+     */
+    static void record(Stage stage, long start) {
+        long nanos = System.nanoTime() - start;
+        stages.get(stage).add(nanos);
+        if (STAGE_EVENTS.isEnabled()) {
+            StageEvent event = new StageEvent();
+            event.stage = stage.name();
+            event.nanos = nanos;
+            event.commit();
+        }
+    }
+
+    /**
+     * @return TweetEvent begun now, to commit after handleEachTweet, null if no recording enables it
+     */
+    static TweetEvent beginTweet() {
+        if (!TWEET_EVENTS.isEnabled()) {
+            return null;
+        }
+        TweetEvent event = new TweetEvent();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Record one execution of a SQL statement
+     * @param sql statement text
+     * @param start System.nanoTime() before the statement was sent
+     */
+    static void recordQuery(String sql, long start) {
+        queries.computeIfAbsent(sql, k -> new Histogram()).add(System.nanoTime() - start);
+    }
+
+    /**
+     * Count an edge that was not created because one of its vertices is not in the database
+     * The drop only counts once the transaction commits, see commitDrops
+     * @param label edge class name
+     */
+    static void droppedEdge(String label) {
+        pendingDrops.get().merge(label, 1L, Long::sum);
+    }
+
+    /**
+     * Count drops of a transaction that committed
+     */
+    static void commitDrops() {
+        Map<String, Long> pending = pendingDrops.get();
+        for (Map.Entry<String, Long> drop : pending.entrySet()) {
+            droppedEdges.computeIfAbsent(drop.getKey(), k -> new LongAdder()).add(drop.getValue());
+        }
+        pending.clear();
+    }
+
+    /**
+     * Forget drops of a transaction that was rolled back, the replay counts them again
+     */
+    static void discardDrops() {
+        pendingDrops.get().clear();
+    }
+
+    /**
+     * Counts the drops of a batch transaction when it commits, forgets them when it is rolled back
+     */
+    static final TransactionListeners.Listener DROPS = new TransactionListeners.Listener() {
+        @Override
+        public void committed() {
+            commitDrops();
+        }
+
+        @Override
+        public void discarded() {
+            discardDrops();
+        }
+    };
+
+    /**
+     * Count a committed batch
+     * @param tweetCount number of tweets of the batch
+     */
+    static void committed(int tweetCount) {
+        tweets.add(tweetCount);
+        batches.increment();
+    }
+
+    /**
+     * Count a transaction rolled back by a conflict with another writer, before it is replayed
+     */
+    static void replayed() {
+        replays.increment();
+    }
+
+    /**
+     * Print a progress line every given number of seconds until stopProgress
+     * @param seconds interval, 0 for no progress line
+     */
+    static synchronized void startProgress(long seconds) {
+        if (seconds <= 0 || progress != null) {
+            return;
+        }
+        progress = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "import-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long[] last = {0, System.nanoTime()};
+        progress.scheduleAtFixedRate(() -> {
+            long count = tweets.sum();
+            long now = System.nanoTime();
+            double rate = (count - last[0]) * 1e9 / (now - last[1]);
+            last[0] = count;
+            last[1] = now;
+            System.out.println(String.format("[progress] %,d tweets, %,.0f tweets/s (average %,.0f), %,d batches, %,d dropped edges",
+                    count, rate, count * 1e9 / (now - startNanos), batches.sum(), droppedEdgeCount()) + lagText());
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Report the lag of a followed source in the progress line
+     * @param source file name or "stdin"
+     * @param bytesBehind bytes of the source not imported yet, -1 if unknown
+     * @param eventLagMillis now - created_at of the last imported tweet, -1 before the first one
+     */
+    static void lag(String source, LongSupplier bytesBehind, LongSupplier eventLagMillis) {
+        lags.put(source, new LongSupplier[]{bytesBehind, eventLagMillis});
+    }
+
+    private static String lagText() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, LongSupplier[]> lag : lags.entrySet()) {
+            long bytes = lag.getValue()[0].getAsLong();
+            long millis = lag.getValue()[1].getAsLong();
+            if (bytes < 0 && millis < 0) {
+                continue;
+            }
+            sb.append(", lag ").append(lag.getKey());
+            if (bytes >= 0) {
+                sb.append(String.format(" %,d bytes", bytes));
+            }
+            if (millis >= 0) {
+                sb.append(String.format(" %.1f s", millis / 1000.0));
+            }
+        }
+        return sb.toString();
+    }
+
+    static synchronized void stopProgress() {
+        if (progress != null) {
+            progress.shutdownNow();
+            progress = null;
+        }
+    }
+
+    private static long droppedEdgeCount() {
+        long total = 0;
+        for (LongAdder adder : droppedEdges.values()) {
+            total += adder.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @return final report: throughput, latency of every stage and statement, dropped edges per class
+     */
+    static String summary() {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        long count = tweets.sum();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Imported %,d tweets in %,d batches, %.1f s, %,.0f tweets/s, %,d conflicts replayed%n",
+                count, batches.sum(), seconds, count / seconds, replays.sum()));
+        sb.append(String.format("%-10s %12s %12s %10s %10s %10s%n", "stage", "count", "total ms", "p50 us", "p99 us", "max us"));
+        for (Map.Entry<Stage, Histogram> stage : stages.entrySet()) {
+            if (stage.getValue().count() > 0) {
+                sb.append(stage.getValue().format(stage.getKey().name())).append('\n');
+            }
+        }
+        for (Map.Entry<String, Histogram> query : queries.entrySet()) {
+            sb.append(query.getValue().format("SQL")).append("  ").append(query.getKey()).append('\n');
+        }
+        sb.append("Dropped edges (vertex not in database):");
+        for (Map.Entry<String, LongAdder> drop : droppedEdges.entrySet()) {
+            sb.append(' ').append(drop.getKey()).append('=').append(drop.getValue().sum());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Lock free latency histogram, bucket i counts latencies in [2^i, 2^(i+1)) nanoseconds
+     */
+    private static final class Histogram {
+        private final LongAdder[] buckets = new LongAdder[64];
+        private final LongAdder total = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+        Histogram() {
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        void add(long nanos) {
+            buckets[63 - Long.numberOfLeadingZeros(Math.max(1, nanos))].increment();
+            total.add(nanos);
+            max.accumulate(nanos);
+        }
+
+        long count() {
+            long count = 0;
+            for (LongAdder bucket : buckets) {
+                count += bucket.sum();
+            }
+            return count;
+        }
+
+        /**
+         * @return upper bound of the bucket holding the given quantile, in nanoseconds
+         */
+        long percentile(double quantile) {
+            long rank = (long) Math.ceil(quantile * count());
+            long seen = 0;
+            for (int i = 0; i < buckets.length; i++) {
+                seen += buckets[i].sum();
+                if (seen >= rank && seen > 0) {
+                    return Math.min(1L << Math.min(i + 1, 62), max.get());
+                }
+            }
+            return max.get();
+        }
+
+        String format(String name) {
+            return String.format("%-10s %,12d %,12d %,10d %,10d %,10d", name, count(), total.sum() / 1000000,
+                    percentile(0.5) / 1000, percentile(0.99) / 1000, max.get() / 1000);
+        }
+    }
+
+    @Name("yas.Stage")
+    @Label("Import Stage")
+    @Category("YAS")
+    @Description("One stage of the import of a tweet, see IngestMetrics.Stage")
+    static class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Duration")
+        @Timespan(Timespan.NANOSECONDS)
+        long nanos;
+    }
+
+    @Name("yas.Tweet")
+    @Label("Import Tweet")
+    @Category("YAS")
+    @Description("handleEachTweet of one tweet, the yas.Stage events of its steps fall within it")
+    static class TweetEvent extends Event {
+        @Label("Tweet ID")
+        long tweetId;
+    }
+}
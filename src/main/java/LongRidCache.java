@@ -0,0 +1,120 @@
+import com.orientechnologies.orient.core.id.ORID;
+
+import java.util.Arrays;
+
+/**
+ * Bounded cache from a primitive long key (tweet_id, user_id) to the record ID of its vertex
+ * Layout:
+ *      keys (long[]):      cached IDs, no boxing
+ *      values (ORID[]):    record ID of the vertex, null for an empty slot
+ *      referenced:         CLOCK bit per slot, set on every hit
+ *
+ * The table is split into sets of WAYS slots. A key can only live in the set picked by its hash,
+ * and when that set is full the CLOCK hand of the set evicts the first slot that was not referenced
+ * since the last sweep. Lookups therefore never touch more than WAYS slots.
+ * NOTE: methods are synchronized so one cache can be shared by several writer sessions
+ */
+public class LongRidCache {
+    private static final int WAYS = 8;
+
+    private final long[] keys;
+    private final ORID[] values;
+    private final boolean[] referenced;
+    private final byte[] hands;
+    private final int setMask;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param capacity maximum number of cached IDs, rounded up to a power of two (at least WAYS)
+     */
+    public LongRidCache(int capacity) {
+        int sets = Integer.highestOneBit(Math.max(1, (capacity + WAYS - 1) / WAYS));
+        if (sets * WAYS < capacity) {
+            sets <<= 1;
+        }
+        this.keys = new long[sets * WAYS];
+        this.values = new ORID[sets * WAYS];
+        this.referenced = new boolean[sets * WAYS];
+        this.hands = new byte[sets];
+        this.setMask = sets - 1;
+    }
+
+    private int setOf(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & setMask;
+    }
+
+    /**
+     * @param key given ID
+     * @return cached record ID, null if not cached
+     */
+    public synchronized ORID get(long key) {
+        int base = setOf(key) * WAYS;
+        for (int i = base; i < base + WAYS; i++) {
+            if (values[i] != null && keys[i] == key) {
+                referenced[i] = true;
+                hits++;
+                return values[i];
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /**
+     * Insert or replace the record ID of given key, evicting a cold entry of the same set if it is full
+     * @param key given ID
+     * @param rid record ID of the vertex
+     */
+    public synchronized void put(long key, ORID rid) {
+        int set = setOf(key);
+        int base = set * WAYS;
+        int free = -1;
+        for (int i = base; i < base + WAYS; i++) {
+            if (values[i] == null) {
+                if (free < 0) {
+                    free = i;
+                }
+            } else if (keys[i] == key) {
+                values[i] = rid;
+                referenced[i] = true;
+                return;
+            }
+        }
+        if (free < 0) {
+            int hand = hands[set];
+            while (referenced[base + hand]) {
+                referenced[base + hand] = false;
+                hand = (hand + 1) % WAYS;
+            }
+            free = base + hand;
+            hands[set] = (byte) ((hand + 1) % WAYS);
+            evictions++;
+        }
+        keys[free] = key;
+        values[free] = rid;
+        referenced[free] = false;
+    }
+
+    /**
+     * Drop every entry, counters are kept
+     */
+    public synchronized void clear() {
+        Arrays.fill(values, null);
+        Arrays.fill(referenced, false);
+    }
+
+    /**
+     * @param name label of the cache for printing
+     * @return one line summary of capacity and hit/miss/eviction counters
+     */
+    public synchronized String stats(String name) {
+        long total = hits + misses;
+        double rate = total == 0 ? 0.0 : 100.0 * hits / total;
+        return String.format("%s cache: capacity=%d hits=%d misses=%d evictions=%d hit rate=%.1f%%",
+                name, values.length, hits, misses, evictions, rate);
+    }
+}
@@ -1,27 +1,59 @@
+import com.orientechnologies.common.concur.ONeedRetryException;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabasePool;
 import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.db.ODatabaseType;
 import com.orientechnologies.orient.core.db.OrientDB;
 import com.orientechnologies.orient.core.db.OrientDBConfig;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.ODirection;
 import com.orientechnologies.orient.core.record.OEdge;
+import com.orientechnologies.orient.core.record.OElement;
 import com.orientechnologies.orient.core.record.OVertex;
-import com.orientechnologies.orient.core.sql.executor.OResultSet;
-import org.json.simple.JSONArray;
-import org.json.simple.JSONObject;
-import org.json.simple.parser.JSONParser;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
 import org.json.simple.parser.ParseException;
 
-import java.io.BufferedReader;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.text.Normalizer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.stream.Stream;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 public class Main {
+    // tweet_id / user_id / hashtag -> record ID caches shared by all writers, committed record IDs only: filled by
+    // database lookups and by the vertices of a transaction once it committed
+    private static LongRidCache tweetCache = new LongRidCache(1 << 20);
+    private static LongRidCache userCache = new LongRidCache(1 << 18);
+    private static HashtagRidCache hashtagCache = new HashtagRidCache(1 << 16);
+    // Vertices created by the current transaction of each thread, with temporary record IDs
+    private static final ThreadLocal<CreatedVertices> createdVertices = ThreadLocal.withInitial(CreatedVertices::new);
+    // Two-phase import: edges are collected here during the vertex pass and created by EdgeSpill.resolve, null o.w.
+    private static EdgeSpill edgeSpill = null;
+    // Partitioned writers: contain, retweet and foreign post edges are attached by the writer owning their target, null o.w.
+    static EdgeRouter edgeRouter = null;
+    // Replays of one batch after concurrent modification conflicts before giving up
+    private static final int MAX_BATCH_RETRIES = 10;
+    // Write every batch with one server-side SQL script (ScriptImport) instead of handleEachTweet
+    private static boolean scriptImport = false;
+    // Continue every file from its ImportCheckpoint, false starts every file from the first line
+    private static boolean resumeImport = true;
+    // Offline load into an in-process database (--url embedded:, plocal:, memory:), see openOrientDB
+    private static boolean bulkLoad = false;
+    // Maintain AggregateCounters during the import, written with each batch
+    static boolean aggregateCounters = true;
+    // Maintain HashtagCooccurrence during the import, written with each batch
+    static boolean hashtagCooccurrence = true;
+    // Hashtag vertices and "contain" edges, or an embedded list in the Tweet
+    static HashtagStorage hashtagStorage = HashtagStorage.VERTEX;
+
     /**
      * Create class and schema for Tweet class
      * Schema:
@@ -44,40 +76,30 @@ public class Main {
         }
         if (tweet.getProperty("tweet_id") == null) {
             tweet.createProperty("tweet_id", OType.LONG);
-            tweet.createIndex("Tweet_id_index", OClass.INDEX_TYPE.NOTUNIQUE, "tweet_id");
         }
         if (tweet.getProperty("create_at") == null) {
             tweet.createProperty("create_at", OType.DATETIME);
-            tweet.createIndex("Create_at_index", OClass.INDEX_TYPE.NOTUNIQUE, "create_at");
         }
         if (tweet.getProperty("text") == null) {
             tweet.createProperty("text", OType.STRING);
-            tweet.createIndex("Text_index", OClass.INDEX_TYPE.NOTUNIQUE, "text");
         }
         if (tweet.getProperty("user_id") == null) {
             tweet.createProperty("user_id", OType.LONG);
-            tweet.createIndex("Tweet_user_id_index", OClass.INDEX_TYPE.NOTUNIQUE, "user_id");
         }
         if (tweet.getProperty("geo") == null) {
             tweet.createProperty("geo", OType.STRING);
-            tweet.createIndex("Geo_index", OClass.INDEX_TYPE.NOTUNIQUE, "geo");
         }
         if (tweet.getProperty("retweet_id") == null) {
             tweet.createProperty("retweet_id", OType.LONG);
-            tweet.createIndex("Retweet_id_index", OClass.INDEX_TYPE.NOTUNIQUE, "retweet_id");
         }
         if (tweet.getProperty("reply_id") == null) {
             tweet.createProperty("reply_id", OType.LONG);
-            tweet.createIndex("Reply_id_index", OClass.INDEX_TYPE.NOTUNIQUE, "reply_id");
         }
         if (tweet.getProperty("quote_id") == null) {
             tweet.createProperty("quote_id", OType.LONG);
-            tweet.createIndex("Quote_id_index", OClass.INDEX_TYPE.NOTUNIQUE, "quote_id");
         }
-//        if (tweet.getProperty("hashtag") == null) {
-//            tweet.createProperty("hashtag", OType.EMBEDDEDLIST);
-//            tweet.createIndex("Hashtag_index", OClass.INDEX_TYPE.NOTUNIQUE, "hashtag");
-//        }
+        // hashtag (embedded list) only with HashtagStorage.EMBEDDED
+        hashtagStorage.createSchema(db);
     }
 
     /**
@@ -98,19 +120,15 @@ public class Main {
         }
         if (user.getProperty("user_id") == null) {
             user.createProperty("user_id", OType.LONG);
-            user.createIndex("User_id_index", OClass.INDEX_TYPE.NOTUNIQUE, "user_id");
         }
         if (user.getProperty("screen_name") == null) {
             user.createProperty("screen_name", OType.STRING);
-            user.createIndex("Screen_name_index", OClass.INDEX_TYPE.NOTUNIQUE, "screen_name");
         }
         if (user.getProperty("country") == null) {
             user.createProperty("country", OType.STRING);
-            user.createIndex("Country_index", OClass.INDEX_TYPE.NOTUNIQUE, "country");
         }
         if (user.getProperty("verified") == null) {
             user.createProperty("verified", OType.BOOLEAN);
-            user.createIndex("Verified_index", OClass.INDEX_TYPE.NOTUNIQUE, "verified");
         }
     }
 
@@ -127,7 +145,6 @@ public class Main {
         }
         if (hashtag.getProperty("hashtag") == null) {
             hashtag.createProperty("hashtag", OType.STRING);
-            hashtag.createIndex("Hashtag_index", OClass.INDEX_TYPE.NOTUNIQUE, "hashtag");
         }
     }
 
@@ -142,11 +159,13 @@ public class Main {
      * @param retweetId original tweet ID of the retweeted tweet
      * @param replyId original tweet ID of the replied tweet
      * @param quoteId original tweet ID of the quoted tweet
+     * @param hashtags hashtags stored in the Tweet with HashtagStorage.EMBEDDED, null for none
      * @return created Tweet vertex in database
      * NOTE: After calling this function, the vertex is already been added to the database.
      *       The return OVertex is for modifying and usage of add edges
      */
-    private static OVertex createTweetVertex(ODatabaseSession db, long tweetId, Date datetime, String text, long userId, String geo, long retweetId, long replyId, long quoteId) {
+    private static OVertex createTweetVertex(ODatabaseSession db, long tweetId, Date datetime, String text, long userId, String geo, long retweetId, long replyId, long quoteId, List<String> hashtags) {
+        long start = System.nanoTime();
         OVertex tweet = db.newVertex("Tweet");
         tweet.setProperty("tweet_id", tweetId);
         tweet.setProperty("create_at", datetime);
@@ -156,7 +175,20 @@ public class Main {
         tweet.setProperty("retweet_id", retweetId);
         tweet.setProperty("reply_id", replyId);
         tweet.setProperty("quote_id", quoteId);
-        tweet.save();
+        if (hashtags != null) {
+            tweet.setProperty("hashtag", HashtagStorage.distinct(hashtags));
+        }
+        String cluster = TweetClusters.clusterOf(datetime);
+        if (cluster != null) {
+            db.save(tweet, cluster);
+        } else {
+            tweet.save();
+        }
+        createdVertices.get().tweets.put(tweetId, tweet.getIdentity());
+        if (aggregateCounters) {
+            AggregateCounters.tweet(userId, retweetId, replyId);
+        }
+        IngestMetrics.record(IngestMetrics.Stage.VERTEX, start);
 //        System.out.println("Created Tweet Vertex with tweet_id = " + tweetId);
         return tweet;
     }
@@ -172,12 +204,15 @@ public class Main {
      * NOTE: Similar to Tweet vertex, it will be automatically added to the database
      */
     private static OVertex createUserVertex(ODatabaseSession db, long userId, String screenName, String country, boolean verified) {
+        long start = System.nanoTime();
         OVertex user = db.newVertex("User");
         user.setProperty("user_id", userId);
         user.setProperty("screen_name", screenName);
         user.setProperty("country", country);
         user.setProperty("verified", verified);
         user.save();
+        createdVertices.get().users.put(userId, user.getIdentity());
+        IngestMetrics.record(IngestMetrics.Stage.VERTEX, start);
 //        System.out.println("Created User Vertex with user_id = " + userId);
         return user;
     }
@@ -190,9 +225,12 @@ public class Main {
      * NOTE: Similar to Tweet vertex, it will be automatically added to the database
      */
     private static OVertex createHashtagVertex(ODatabaseSession db, String hashtag) {
+        long start = System.nanoTime();
         OVertex vertex = db.newVertex("Hashtag");
         vertex.setProperty("hashtag", hashtag);
         vertex.save();
+        createdVertices.get().hashtags.put(hashtag, vertex.getIdentity());
+        IngestMetrics.record(IngestMetrics.Stage.VERTEX, start);
 //        System.out.println("Created Hashtag Vertex with hashtag = " + hashtag);
         return vertex;
     }
@@ -224,6 +262,197 @@ public class Main {
         }
     }
 
+    /**
+     * Record IDs of the vertices created by the current transaction of a thread
+     * A temporary record ID is numbered per transaction, the same one in another session is another record, so they
+     * are only seen by their own transaction and move to the shared caches when it commits (commitCreatedVertices).
+     */
+    private static final class CreatedVertices {
+        final Map<Long, ORID> tweets = new HashMap<>();
+        final Map<Long, ORID> users = new HashMap<>();
+        final Map<String, ORID> hashtags = new HashMap<>();
+
+        void clear() {
+            tweets.clear();
+            users.clear();
+            hashtags.clear();
+        }
+    }
+
+    /**
+     * Caches the vertices created by the transaction of this thread when it commits, their record IDs are final then,
+     * and forgets them when it is rolled back
+     */
+    static final TransactionListeners.Listener CREATED_VERTICES = new TransactionListeners.Listener() {
+        @Override
+        public void committed() {
+            commitCreatedVertices();
+        }
+
+        @Override
+        public void discarded() {
+            createdVertices.get().clear();
+        }
+    };
+
+    static {
+        TransactionListeners.register(IngestMetrics.DROPS);
+        TransactionListeners.register(CREATED_VERTICES);
+        TransactionListeners.register(AggregateCounters.LISTENER);
+        TransactionListeners.register(HashtagCooccurrence.LISTENER);
+        TransactionListeners.register(TweetPatches.LISTENER);
+    }
+
+    private static void commitCreatedVertices() {
+        CreatedVertices created = createdVertices.get();
+        for (Map.Entry<Long, ORID> tweet : created.tweets.entrySet()) {
+            if (tweet.getValue().isPersistent()) {
+                tweetCache.put(tweet.getKey(), tweet.getValue());
+            }
+        }
+        for (Map.Entry<Long, ORID> user : created.users.entrySet()) {
+            if (user.getValue().isPersistent()) {
+                userCache.put(user.getKey(), user.getValue());
+            }
+        }
+        for (Map.Entry<String, ORID> hashtag : created.hashtags.entrySet()) {
+            if (hashtag.getValue().isPersistent()) {
+                hashtagCache.put(hashtag.getKey(), hashtag.getValue());
+            }
+        }
+        created.clear();
+    }
+
+    /**
+     * Look up the record ID of the Tweet vertex with given tweet_id: current transaction, cache, then database
+     * @param db OrientDB TwitterDB connection
+     * @param tweetId given tweet ID
+     * @return record ID of the Tweet vertex, null if it is not in the database
+     */
+    static ORID findTweetVertex(ODatabaseSession db, long tweetId) {
+        long start = System.nanoTime();
+        ORID rid = createdVertices.get().tweets.get(tweetId);
+        if (rid == null) {
+            rid = tweetCache.get(tweetId);
+        }
+        if (rid == null) {
+            rid = Statements.findRid(db, Statements.TWEET_RID, tweetId);
+            if (rid != null && rid.isPersistent()) {
+                tweetCache.put(tweetId, rid);
+            }
+        }
+        IngestMetrics.record(IngestMetrics.Stage.LOOKUP, start);
+        return rid;
+    }
+
+    /**
+     * Look up the record ID of the User vertex with given user_id: current transaction, cache, then database
+     * @param db OrientDB TwitterDB connection
+     * @param userId given user ID
+     * @return record ID of the User vertex, null if it is not in the database
+     */
+    static ORID findUserVertex(ODatabaseSession db, long userId) {
+        long start = System.nanoTime();
+        ORID rid = createdVertices.get().users.get(userId);
+        if (rid == null) {
+            rid = userCache.get(userId);
+        }
+        if (rid == null) {
+            rid = Statements.findRid(db, Statements.USER_RID, userId);
+            if (rid != null && rid.isPersistent()) {
+                userCache.put(userId, rid);
+            }
+        }
+        IngestMetrics.record(IngestMetrics.Stage.LOOKUP, start);
+        return rid;
+    }
+
+    /**
+     * Look up the record ID of the Hashtag vertex with given name: current transaction, cache, then database
+     * @param db OrientDB TwitterDB connection
+     * @param hashtag given hashtag name
+     * @return record ID of the Hashtag vertex, null if it is not in the database
+     */
+    static ORID findHashtagVertex(ODatabaseSession db, String hashtag) {
+        long start = System.nanoTime();
+        ORID rid = createdVertices.get().hashtags.get(hashtag);
+        if (rid == null) {
+            rid = hashtagCache.get(hashtag);
+        }
+        if (rid == null) {
+            rid = Statements.findRid(db, Statements.HASHTAG_RID, hashtag);
+            if (rid != null && rid.isPersistent()) {
+                hashtagCache.put(hashtag, rid);
+            }
+        }
+        IngestMetrics.record(IngestMetrics.Stage.LOOKUP, start);
+        return rid;
+    }
+
+    /**
+     * Look up the record ID of the Hashtag vertex with given name, creating the vertex if it is not in the database
+     * @param db OrientDB TwitterDB connection, in a transaction
+     * @param hashtag given hashtag name
+     * @return record ID of the Hashtag vertex
+     */
+    static ORID findOrCreateHashtagVertex(ODatabaseSession db, String hashtag) {
+        ORID rid = findHashtagVertex(db, hashtag);
+        return rid != null ? rid : createHashtagVertex(db, hashtag).getIdentity();
+    }
+
+    /**
+     * Create relation edge of given class between two vertices found by record ID
+     * @param db OrientDB TwitterDB connection
+     * @param from record ID of the out vertex, edge is skipped (and counted as dropped) if null
+     * @param to record ID of the in vertex, edge is skipped (and counted as dropped) if null
+     * @param label edge class name
+     */
+    static void createEdge(ODatabaseSession db, ORID from, ORID to, String label) {
+        if (from == null || to == null) {
+            IngestMetrics.droppedEdge(label);
+            return;
+        }
+        long start = System.nanoTime();
+        OElement fromElement = db.load(from);
+        OElement toElement = db.load(to);
+        if (fromElement == null || toElement == null) {
+            IngestMetrics.droppedEdge(label);
+            return;
+        }
+        OVertex fromVertex = fromElement.asVertex().get();
+        OVertex toVertex = toElement.asVertex().get();
+        if (!hasEdge(fromVertex, toVertex, label)) {
+            OEdge edge = db.newEdge(fromVertex, toVertex, label);
+            edge.save();
+        }
+        IngestMetrics.record(IngestMetrics.Stage.EDGE, start);
+    }
+
+    /**
+     * Whether the edge already exists, so a tweet seen again (replayed batch, duplicate line) adds no second edge
+     * Edges are scanned on the Tweet side, a User or Hashtag vertex can have a very large number of edges
+     * @param from out vertex
+     * @param to in vertex
+     * @param label edge class name
+     * @return true if from already has an edge of this class to to
+     */
+    private static boolean hasEdge(OVertex from, OVertex to, String label) {
+        if ("post".equals(label)) {
+            for (OVertex vertex : to.getVertices(ODirection.IN, label)) {
+                if (vertex.getIdentity().equals(from.getIdentity())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        for (OVertex vertex : from.getVertices(ODirection.OUT, label)) {
+            if (vertex.getIdentity().equals(to.getIdentity())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Create "post" relation edge class object for given user_id and tweet_id
      * @param db OrientDB TwitterDB connection
@@ -231,25 +460,15 @@ public class Main {
      * @param tweetId given tweet ID
      */
     private static void createPostEdge(ODatabaseSession db, long userId, long tweetId) {
-        String query1 = String.format("SELECT * FROM User WHERE user_id = %d", userId);
-        OResultSet iter1 = db.query(query1);
-        Stream<OVertex> userList = iter1.vertexStream();
-        Optional<OVertex> optionUser = userList.findFirst();
-
-        String query2 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", tweetId);
-        OResultSet iter2 = db.query(query2);
-        Stream<OVertex> tweetList = iter2.vertexStream();
-        Optional<OVertex> optionTweet = tweetList.findFirst();
-
-        if (optionUser.isPresent() && optionTweet.isPresent()) {
-//            System.out.println("create post edge");
-            OVertex user = optionUser.get();
-            OVertex tweet = optionTweet.get();
-            OEdge edge = db.newEdge(user, tweet, "post");
-            edge.save();
+        if (edgeSpill != null) {
+            edgeSpill.add(EdgeSpill.POST, userId, tweetId);
+            return;
+        }
+        if (edgeRouter != null && !edgeRouter.owns(userId)) {
+            edgeRouter.post(db, userId, tweetId);
+            return;
         }
-        iter1.close();
-        iter2.close();
+        createEdge(db, findUserVertex(db, userId), findTweetVertex(db, tweetId), "post");
     }
 
     /**
@@ -259,25 +478,15 @@ public class Main {
      * @param retweetId given retweet ID
      */
     private static void createRetweetEdge(ODatabaseSession db, long tweetId, long retweetId) {
-        String query1 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", tweetId);
-        OResultSet iter1 = db.query(query1);
-        Stream<OVertex> tweetList = iter1.vertexStream();
-        Optional<OVertex> optionTweet = tweetList.findFirst();
-
-        String query2 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", retweetId);
-        OResultSet iter2 = db.query(query2);
-        Stream<OVertex> retweetList = iter2.vertexStream();
-        Optional<OVertex> optionRetweet = retweetList.findFirst();
-
-        if (optionTweet.isPresent() && optionRetweet.isPresent()) {
-            OVertex tweet = optionTweet.get();
-            OVertex retweet = optionRetweet.get();
-            OEdge edge = db.newEdge(tweet, retweet, "retweet");
-            edge.save();
+        if (edgeSpill != null) {
+            edgeSpill.add(EdgeSpill.RETWEET, tweetId, retweetId);
+            return;
         }
-        iter1.close();
-        iter2.close();
-
+        if (edgeRouter != null) {
+            edgeRouter.retweet(db, tweetId, retweetId);
+            return;
+        }
+        createEdge(db, findTweetVertex(db, tweetId), findTweetVertex(db, retweetId), "retweet");
     }
 
     /**
@@ -287,24 +496,11 @@ public class Main {
      * @param replyId given replied tweet ID
      */
     private static void createReplyEdge(ODatabaseSession db, long tweetId, long replyId) {
-        String query1 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", tweetId);
-        OResultSet iter1 = db.query(query1);
-        Stream<OVertex> tweetList = iter1.vertexStream();
-        Optional<OVertex> optionTweet = tweetList.findFirst();
-
-        String query2 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", replyId);
-        OResultSet iter2 = db.query(query2);
-        Stream<OVertex> replyList = iter2.vertexStream();
-        Optional<OVertex> optionReply = replyList.findFirst();
-
-        if (optionTweet.isPresent() && optionReply.isPresent()) {
-            OVertex tweet = optionTweet.get();
-            OVertex reply = optionReply.get();
-            OEdge edge = db.newEdge(tweet, reply, "reply");
-            edge.save();
+        if (edgeSpill != null) {
+            edgeSpill.add(EdgeSpill.REPLY, tweetId, replyId);
+            return;
         }
-        iter1.close();
-        iter2.close();
+        createEdge(db, findTweetVertex(db, tweetId), findTweetVertex(db, replyId), "reply");
     }
 
     /**
@@ -314,24 +510,11 @@ public class Main {
      * @param quoteId given quoted tweet ID
      */
     private static void createQuoteEdge(ODatabaseSession db, long tweetId, long quoteId) {
-        String query1 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", tweetId);
-        OResultSet iter1 = db.query(query1);
-        Stream<OVertex> tweetList = iter1.vertexStream();
-        Optional<OVertex> optionTweet = tweetList.findFirst();
-
-        String query2 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", quoteId);
-        OResultSet iter2 = db.query(query2);
-        Stream<OVertex> quoteList = iter2.vertexStream();
-        Optional<OVertex> optionQuote = quoteList.findFirst();
-
-        if (optionTweet.isPresent() && optionQuote.isPresent()) {
-            OVertex tweet = optionTweet.get();
-            OVertex quote = optionQuote.get();
-            OEdge edge = db.newEdge(tweet, quote, "quote");
-            edge.save();
+        if (edgeSpill != null) {
+            edgeSpill.add(EdgeSpill.QUOTE, tweetId, quoteId);
+            return;
         }
-        iter1.close();
-        iter2.close();
+        createEdge(db, findTweetVertex(db, tweetId), findTweetVertex(db, quoteId), "quote");
     }
 
     /**
@@ -341,24 +524,15 @@ public class Main {
      * @param hashtag given hashtag name
      */
     private static void createContainEdge(ODatabaseSession db, long tweetId, String hashtag) {
-        String query1 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", tweetId);
-        OResultSet iter1 = db.query(query1);
-        Stream<OVertex> tweetList = iter1.vertexStream();
-        Optional<OVertex> optionTweet = tweetList.findFirst();
-
-        String query2 = String.format("SELECT * FROM Hashtag WHERE hashtag = \"%s\"", hashtag);
-        OResultSet iter2 = db.query(query2);
-        Stream<OVertex> hashtagList = iter2.vertexStream();
-        Optional<OVertex> optionHashtag = hashtagList.findFirst();
-
-        if (optionTweet.isPresent() && optionHashtag.isPresent()) {
-            OVertex tweet = optionTweet.get();
-            OVertex hashtagRes = optionHashtag.get();
-            OEdge edge = db.newEdge(tweet, hashtagRes, "contain");
-            edge.save();
+        if (edgeSpill != null) {
+            edgeSpill.addContain(tweetId, hashtag);
+            return;
         }
-        iter1.close();
-        iter2.close();
+        if (edgeRouter != null) {
+            edgeRouter.contain(db, tweetId, hashtag);
+            return;
+        }
+        createEdge(db, findTweetVertex(db, tweetId), findHashtagVertex(db, hashtag), "contain");
     }
 
     /**
@@ -368,12 +542,7 @@ public class Main {
      * @return true for Tweet in database, false o.w.
      */
     public static boolean checkTweetVertex(ODatabaseSession db, long tweetId) {
-        String query1 = String.format("SELECT * FROM Tweet WHERE tweet_id = %d", tweetId);
-        OResultSet iter1 = db.query(query1);
-        Stream<OVertex> tweetList = iter1.vertexStream();
-        Optional<OVertex> optionTweet = tweetList.findFirst();
-        iter1.close();
-        return optionTweet.isPresent();
+        return findTweetVertex(db, tweetId) != null;
     }
 
     /**
@@ -383,12 +552,7 @@ public class Main {
      * @return true for User in database, false o.w.
      */
     public static boolean checkUserVertex(ODatabaseSession db, long userId) {
-        String query1 = String.format("SELECT * FROM User WHERE user_id = %d", userId);
-        OResultSet iter1 = db.query(query1);
-        Stream<OVertex> userList = iter1.vertexStream();
-        Optional<OVertex> optionUser = userList.findFirst();
-        iter1.close();
-        return optionUser.isPresent();
+        return findUserVertex(db, userId) != null;
     }
 
     /**
@@ -398,264 +562,383 @@ public class Main {
      * @return true for Hashtag in database, false o.w.
      */
     public static boolean checkHashtagVertex(ODatabaseSession db, String hashtag) {
-        String query1 = String.format("SELECT * FROM Hashtag WHERE hashtag = \"%s\"", hashtag);
-        OResultSet iter1 = db.query(query1);
-        Stream<OVertex> hashtagList = iter1.vertexStream();
-        Optional<OVertex> hashtagVertex = hashtagList.findFirst();
-        iter1.close();
-        return hashtagVertex.isPresent();
-    }
-
-    /**
-     * Convert specific time string to Date object
-     * @param date specific time format for converting, "Weekday Month DD hh:mm:ss +xxxx YEAR"
-     * @return Date object representing datetime
-     */
-    private static Date convertStringTimeToDate(String date) {
-        String[] splits = date.split(" ");
-        String dateFormat = "";
-        // Year
-        dateFormat += splits[splits.length - 1];
-        dateFormat += "-";
-        // Month
-        String monthStr = splits[splits.length - 5];
-        switch (monthStr) {
-            case "Jan": dateFormat += "01";
-                break;
-            case "Feb": dateFormat += "02";
-                break;
-            case "Mar": dateFormat += "03";
-                break;
-            case "Apr": dateFormat += "04";
-                break;
-            case "May": dateFormat += "05";
-                break;
-            case "Jun": dateFormat += "06";
-                break;
-            case "Jul": dateFormat += "07";
-                break;
-            case "Aug": dateFormat += "08";
-                break;
-            case "Sep": dateFormat += "09";
-                break;
-            case "Oct": dateFormat += "10";
-                break;
-            case "Nov": dateFormat += "11";
-                break;
-            case "Dec": dateFormat += "12";
-                break;
-        }
-        dateFormat += "-";
-        // Date
-        dateFormat += splits[splits.length - 4];
-        dateFormat += " ";
-        // Time
-        dateFormat += splits[splits.length - 3];
-
-//        System.out.println(dateFormat);
-        SimpleDateFormat dt = new SimpleDateFormat("yyyy-MM-dd hh:mm:ss");
-        try {
-            return dt.parse(dateFormat);
-        } catch (java.text.ParseException e) {
+        return findHashtagVertex(db, hashtag) != null;
+    }
+
+    /**
+     * Convert created_at time to Date object
+     * @param time epoch millis parsed by TweetCodec.parseCreatedAt from "Weekday Month DD HH:mm:ss +xxxx YEAR"
+     * @return Date object representing datetime, current time if created_at was malformed
+     */
+    static Date convertTimeToDate(long time) {
+        if (time == TweetCodec.INVALID_TIME) {
             return new Date();
         }
+        return new Date(time);
+    }
+
+    /**
+     * ImportSink of an OrientDB session, remote or embedded depending on the URL the database was opened with
+     * The writes go through the methods above: record ID caches, EdgeSpill (--two-phase), EdgeRouter (--partitioned),
+     * and TweetPatches for the reply_id / quote_id of tweets already in the database.
+     */
+    static final class OrientDBSink implements ImportSink {
+        private final ODatabaseSession db;
+
+        /**
+         * @param db OrientDB TwitterDB connection, the transaction is managed by the caller
+         */
+        OrientDBSink(ODatabaseSession db) {
+            this.db = db;
+        }
+
+        @Override
+        public void write(List<TweetRecord> batch, ImportCheckpoint checkpoint) {
+            importBatch(db, batch, checkpoint);
+        }
+
+        @Override
+        public boolean hasTweet(long tweetId) {
+            return checkTweetVertex(db, tweetId);
+        }
+
+        @Override
+        public boolean hasUser(long userId) {
+            return checkUserVertex(db, userId);
+        }
+
+        @Override
+        public boolean hasHashtag(String hashtag) {
+            return checkHashtagVertex(db, hashtag);
+        }
+
+        @Override
+        public void createTweet(long tweetId, Date createAt, String text, long userId, String geo, long retweetId, long replyId, long quoteId, List<String> hashtags) {
+            createTweetVertex(db, tweetId, createAt, text, userId, geo, retweetId, replyId, quoteId, hashtags);
+        }
+
+        @Override
+        public void createUser(long userId, String screenName, String country, boolean verified) {
+            createUserVertex(db, userId, screenName, country, verified);
+        }
+
+        @Override
+        public void createHashtag(String hashtag) {
+            createHashtagVertex(db, hashtag);
+        }
+
+        @Override
+        public void createPostEdge(long userId, long tweetId) {
+            Main.createPostEdge(db, userId, tweetId);
+        }
+
+        @Override
+        public void createRetweetEdge(long tweetId, long retweetId) {
+            Main.createRetweetEdge(db, tweetId, retweetId);
+        }
+
+        @Override
+        public void createReplyEdge(long tweetId, long replyId) {
+            Main.createReplyEdge(db, tweetId, replyId);
+        }
+
+        @Override
+        public void createQuoteEdge(long tweetId, long quoteId) {
+            Main.createQuoteEdge(db, tweetId, quoteId);
+        }
+
+        @Override
+        public void createContainEdge(long tweetId, String hashtag) {
+            Main.createContainEdge(db, tweetId, hashtag);
+        }
+
+        @Override
+        public void updateReplyId(long tweetId, long replyId) {
+            TweetPatches.reply(tweetId, replyId);
+        }
+
+        @Override
+        public void updateQuoteId(long tweetId, long quoteId) {
+            TweetPatches.quote(tweetId, quoteId);
+        }
     }
 
     /**
-     * Actual JSON parsing function for extracting information and creating class objects for Vertex and Edges
-     * Currently only extracting information
-     * TODO: NEED LOGIC TO ADD VERTEX, EDGES
-     * @param tweet JSON object for exactly one tweet from Kaggle data set
+     * Write the vertices and edges of one decoded tweet to the sink
+     * @param sink where the vertices and edges of the tweet are written
+     * @param tweet decoded fields of exactly one tweet from Kaggle data set
      */
-    private static void handleEachTweet(ODatabaseSession db, JSONObject tweet) {
+    static void handleEachTweet(ImportSink sink, TweetRecord tweet) {
         // Weird lines in dataset, ignore
-        if (tweet.get("limit") != null) {
+        if (tweet.limit) {
             return;
         }
 
         // Get tweet_id
-        long tweetId = (long) tweet.get("id");
+        long tweetId = tweet.id;
         // Get user_id
-        JSONObject user = (JSONObject) tweet.get("user");
-        long userId = (long) user.get("id");
+        long userId = tweet.userId;
 
         // Get retweet tweet_id
         long retweetId = -1;
-        JSONObject retweet = (JSONObject) tweet.get("retweeted_status");
+        TweetRecord retweet = tweet.hasRetweet ? tweet.retweet : null;
         if (retweet != null) {
-            retweetId = (long) retweet.get("id");
+            retweetId = retweet.id;
         }
         // Whether retweet already in the database
-        if (retweet != null && !checkTweetVertex(db, retweetId)) {
+        if (retweet != null && !sink.hasTweet(retweetId)) {
             // Retweet not in database, need to add retweet Vertex to database for "retweet" edge
 
             // Get retweet create_at
-            String rtCreateAtStr = (String) retweet.get("created_at");
-            Date rtCreateAt = convertStringTimeToDate(rtCreateAtStr);
+            Date rtCreateAt = convertTimeToDate(retweet.createdAt);
             // Get retweet text
-            String rtText = (String) retweet.get("text");
-            JSONObject rtUser = (JSONObject) retweet.get("user");
+            String rtText = retweet.text;
             // Get retweet user_id
-            long rtUserId = (long) rtUser.get("id");
+            long rtUserId = retweet.userId;
             // Get retweet geo
-            String rtCountry = null;
-            JSONObject rtGeo = (JSONObject) retweet.get("place");
-            if (rtGeo != null) {
-                rtCountry = (String) rtGeo.get("country");
-            }
+            String rtCountry = retweet.placeCountry;
             // Retweet retweet_id and quote_id not presented, set to -1 for future update
             long rtRetweetId = -1;
             long rtQuoteId = -1;
             // Get retweet reply_id
-            long rtReplyId = -1;
-            if (retweet.get("in_reply_to_status_id") != null) {
-                rtReplyId = (long) retweet.get("in_reply_to_status_id");
-            }
+            long rtReplyId = retweet.inReplyToStatusId;
             // Add retweet Vertex to database
-            createTweetVertex(db, retweetId, rtCreateAt, rtText, rtUserId, rtCountry, rtRetweetId, rtReplyId, rtQuoteId);
+            sink.createTweet(retweetId, rtCreateAt, rtText, rtUserId, rtCountry, rtRetweetId, rtReplyId, rtQuoteId, null);
 
-            if (!checkUserVertex(db, rtUserId)) {
+            if (!sink.hasUser(rtUserId)) {
                 // Retweet User not in database
-                String screenName = (String) rtUser.get("screen_name");
-                String country = null;
-                if (rtUser.get("location") != null) {
-                    country = (String) user.get("location");
-                }
-                boolean verified = (boolean) rtUser.get("verified");
+                String screenName = retweet.userScreenName;
+                String country = retweet.userLocation;
+                boolean verified = retweet.userVerified;
 
-                createUserVertex(db, rtUserId, screenName, country, verified);
+                sink.createUser(rtUserId, screenName, country, verified);
             }
             // Add "post" Edge for this retweet
-            createPostEdge(db, rtUserId, retweetId);
+            sink.createPostEdge(rtUserId, retweetId);
 
             // Add "reply" Edge if reply_id presented here
-            if (rtReplyId != -1 && checkTweetVertex(db, rtReplyId)) {
-                createReplyEdge(db, retweetId, rtReplyId);
+            if (rtReplyId != -1 && (edgeSpill != null || sink.hasTweet(rtReplyId))) {
+                sink.createReplyEdge(retweetId, rtReplyId);
             }
-        } else if (retweet != null && checkTweetVertex(db, retweetId)) {
-            // Retweet already in database
-            createRetweetEdge(db, tweetId, retweetId);
+        } else if (retweet != null && sink.hasTweet(tweetId)) {
+            // Retweet already in database, the tweet too (replayed line), otherwise the edge is created (or spilled) once
+            // with the tweet below
+            sink.createRetweetEdge(tweetId, retweetId);
         }
         // No retweet module
 
         // NOTE: retweet_id, reply_id, quote_id = -1 means no such retweet, reply, or quote
-        long replyId = -1;
-        if (tweet.get("in_reply_to_status_id") != null) {
-            replyId = (long) tweet.get("in_reply_to_status_id");
-        }
-        long quoteId = -1;
-        if (tweet.get("quoted_status_id") != null) {
-            quoteId = (long) tweet.get("quoted_status_id");
-        }
+        long replyId = tweet.inReplyToStatusId;
+        long quoteId = tweet.quotedStatusId;
 
-        if (checkTweetVertex(db, tweetId)) {
+        if (sink.hasTweet(tweetId)) {
             // Tweet already in database, update retweet_id and quote_id, and insert corresponding "retweet", "quote" relationship
-            if (replyId != -1 && checkTweetVertex(db, replyId)) {
-                createReplyEdge(db, tweetId, replyId);
-
-                String checkQuery = String.format("SELECT reply_id FROM Tweet WHERE tweet_id = %d", tweetId);
-                OResultSet iter1 = db.query(checkQuery);
-                Stream<OVertex> list = iter1.vertexStream();
-                Optional<OVertex> reply = list.findFirst();
-                if (reply.isPresent()) {
-                    OVertex vert = reply.get();
-                    long r_id = (long) vert.getProperty("reply_id");
-                    if (r_id != replyId) {
-                        String replyQuery = String.format("UPDATE Tweet SET reply_id = %d WHERE tweet_id = %d", replyId, tweetId);
-                        db.query(replyQuery);
-                    }
-                }
-                iter1.close();
-            }
-            if (quoteId != -1 && checkTweetVertex(db, quoteId)) {
-                createQuoteEdge(db, tweetId, quoteId);
-
-                String checkQuery = String.format("SELECT quote_id FROM Tweet WHERE tweet_id = %d", tweetId);
-                OResultSet iter1 = db.query(checkQuery);
-                Stream<OVertex> list = iter1.vertexStream();
-                Optional<OVertex> quote = list.findFirst();
-                if (quote.isPresent()) {
-                    OVertex vert = quote.get();
-                    long q_id = (long) vert.getProperty("quote_id");
-                    if (q_id != quoteId) {
-                        String quoteQuery = String.format("UPDATE Tweet SET quote_id = %d WHERE tweet_id = %d", quoteId, tweetId);
-                        db.query(quoteQuery);
-                    }
-                }
-                iter1.close();
+            if (replyId != -1 && (edgeSpill != null || sink.hasTweet(replyId))) {
+                sink.createReplyEdge(tweetId, replyId);
+                sink.updateReplyId(tweetId, replyId);
+            }
+            if (quoteId != -1 && (edgeSpill != null || sink.hasTweet(quoteId))) {
+                sink.createQuoteEdge(tweetId, quoteId);
+                sink.updateQuoteId(tweetId, quoteId);
             }
             return;
         }
 
         // Adding new Tweet Vertex
-        if (!checkTweetVertex(db, tweetId)) {
-            String createAtStr = (String) tweet.get("created_at");
-            Date createAt = convertStringTimeToDate(createAtStr);
+        if (!sink.hasTweet(tweetId)) {
+            Date createAt = convertTimeToDate(tweet.createdAt);
 
-            String text = (String) tweet.get("text");
+            String text = tweet.text;
 
             // NOTE: country might be null
-            String country = null;
-            JSONObject geo = (JSONObject) tweet.get("place");
-            if (geo != null) {
-                country = (String) geo.get("country");
-            }
+            String country = tweet.placeCountry;
 
-            createTweetVertex(db, tweetId, createAt, text, userId, country, retweetId, replyId, quoteId);
+            sink.createTweet(tweetId, createAt, text, userId, country, retweetId, replyId, quoteId,
+                    hashtagStorage == HashtagStorage.EMBEDDED ? tweet.hashtags : null);
         }
 
         // Adding new User Vertex
-        if (!checkUserVertex(db, userId)) {
-            String screenName = (String) user.get("screen_name");
-            String country = null;
-            if (user.get("location") != null) {
-                country = (String) user.get("location");
-            }
-            boolean verified = (boolean) user.get("verified");
+        if (!sink.hasUser(userId)) {
+            String screenName = tweet.userScreenName;
+            String country = tweet.userLocation;
+            boolean verified = tweet.userVerified;
 
-            createUserVertex(db, userId, screenName, country, verified);
+            sink.createUser(userId, screenName, country, verified);
         }
 
         // Adding new "post" Edge
-        createPostEdge(db, userId, tweetId);
+        sink.createPostEdge(userId, tweetId);
 
         // Adding new "retweet" Edge
         if (retweetId != -1) {
-            createRetweetEdge(db, tweetId, retweetId);
+            sink.createRetweetEdge(tweetId, retweetId);
         }
 
         // Adding new "reply" Edge
         if (replyId != -1) {
-            createReplyEdge(db, tweetId, replyId);
+            sink.createReplyEdge(tweetId, replyId);
         }
 
         // Adding new "quote" Edge
         if (quoteId != -1) {
-            createQuoteEdge(db, tweetId, quoteId);
+            sink.createQuoteEdge(tweetId, quoteId);
         }
 
         // Adding new Hashtag Vertex
-        JSONObject entities = (JSONObject) tweet.get("entities");
-        JSONArray fullHashtags = (JSONArray) entities.get("hashtags");
-        for (Object fullHashtag : fullHashtags) {
-            JSONObject hashtagInfo = (JSONObject) fullHashtag;
-            String hashtag = (String) hashtagInfo.get("text");
-            hashtag = Normalizer.normalize(hashtag, Normalizer.Form.NFD);
-            hashtag = hashtag.replaceAll("\\p{M}", "");
-//            System.out.println(hashtag);
-            if (!checkHashtagVertex(db, hashtag)) {
-                createHashtagVertex(db, hashtag);
+        // NOTE: hashtags are already normalized by TweetDecoder
+        for (int i = 0; i < tweet.hashtags.size(); i++) {
+            String hashtag = tweet.hashtags.get(i);
+            if (hashtagStorage == HashtagStorage.VERTEX) {
+                // A routed hashtag is created by its owning writer with the edge
+                if (edgeRouter == null && !sink.hasHashtag(hashtag)) {
+                    sink.createHashtag(hashtag);
+                }
+                // Adding new "contain" Edge, the sink skips it for a hashtag used twice by the tweet (see ImportSink)
+                sink.createContainEdge(tweetId, hashtag);
+            }
+            // A hashtag used twice by the tweet is counted once
+            if (aggregateCounters && tweet.hashtags.indexOf(hashtag) == i) {
+                AggregateCounters.hashtag(hashtag, convertTimeToDate(tweet.createdAt));
             }
-            // Adding new "contain" Edge
-            createContainEdge(db, tweetId, hashtag);
+        }
+        if (hashtagCooccurrence) {
+            HashtagCooccurrence.tweet(tweet.hashtags);
         }
     }
 
-    private static void createDataBase(ODatabaseSession db) {
+    /**
+     * Create classes, properties and relations, then the indexes of given profile
+     * @param db OrientDB TwitterDB connection
+     * @param profile which indexes exist during the import, see IndexProfile
+     */
+    static void createDataBase(ODatabaseSession db, IndexProfile profile) {
         createTweetSchema(db);
         createUserSchema(db);
         createHashtagSchema(db);
         createRelations(db);
+        profile.createIndexes(db);
+    }
+
+    /**
+     * Forget every cached record ID
+     * Needed when the database is replaced, e.g. between benchmark rounds
+     */
+    static void clearCaches() {
+        tweetCache.clear();
+        userCache.clear();
+        hashtagCache.clear();
+    }
+
+    /**
+     * Run given work in one transaction, so everything it writes pays a single commit round-trip
+     * If the commit hits a concurrent modification, or another session created the same key first (unique key index),
+     * the transaction is rolled back and the work is replayed after a short random back-off
+     * NOTE: work must be safe to replay, it runs once per attempt
+     * @param db OrientDB TwitterDB connection
+     * @param work writes of this transaction
+     */
+    static void runInTransaction(ODatabaseSession db, Runnable work) {
+        for (int attempt = 1; ; attempt++) {
+            db.begin();
+            try {
+                work.run();
+                TransactionListeners.beforeCommit((sql, args) -> Statements.command(db, sql, args));
+                long start = System.nanoTime();
+                db.commit();
+                IngestMetrics.record(IngestMetrics.Stage.COMMIT, start);
+                TransactionListeners.committed();
+                return;
+            } catch (ONeedRetryException | ORecordDuplicatedException e) {
+                if (db.getTransaction().isActive()) {
+                    db.rollback();
+                }
+                TransactionListeners.discarded();
+                // Records loaded before the conflict are stale, reload them on replay
+                db.getLocalCache().invalidate();
+                if (attempt >= MAX_BATCH_RETRIES) {
+                    throw e;
+                }
+                IngestMetrics.replayed();
+//                System.out.println("Retry batch after conflict, attempt " + attempt);
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(10 * attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                if (db.getTransaction().isActive()) {
+                    db.rollback();
+                }
+                TransactionListeners.discarded();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Handle every tweet of a group, one TweetEvent each
+     * @param sink where the vertices and edges of the tweets are written
+     * @param batch decoded tweets of this group
+     */
+    static void handleBatch(ImportSink sink, List<TweetRecord> batch) {
+        for (TweetRecord tweet : batch) {
+            IngestMetrics.TweetEvent event = IngestMetrics.beginTweet();
+            handleEachTweet(sink, tweet);
+            if (event != null) {
+                event.tweetId = tweet.id;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * @param batch decoded tweets of a group
+     * @return number of tweets of the group, without the limit notices
+     */
+    static int tweetCount(List<TweetRecord> batch) {
+        int tweets = 0;
+        for (TweetRecord tweet : batch) {
+            if (!tweet.limit) {
+                tweets++;
+            }
+        }
+        return tweets;
+    }
+
+    /**
+     * Write a group of tweets in one transaction, replayed as a whole on conflicts (see runInTransaction)
+     * @param db OrientDB TwitterDB connection
+     * @param batch decoded tweets of this group
+     */
+    static void importBatch(ODatabaseSession db, List<TweetRecord> batch) {
+        importBatch(db, batch, null);
+    }
+
+    /**
+     * Write a group of tweets and the checkpoint that follows it in one transaction
+     * @param db OrientDB TwitterDB connection
+     * @param batch decoded tweets of this group
+     * @param checkpoint position after the last line of batch, null if not checkpointed
+     */
+    static void importBatch(ODatabaseSession db, List<TweetRecord> batch, ImportCheckpoint checkpoint) {
+        if (TweetClusters.enabled()) {
+            TweetClusters.prepare(db, batch);
+        }
+        // The edges of a two-phase import are only written after the load, a checkpoint would skip lines without them
+        ImportCheckpoint saved = edgeSpill == null ? checkpoint : null;
+        if (scriptImport) {
+            ScriptImport.importBatch(db, batch, edgeSpill, saved, MAX_BATCH_RETRIES);
+        } else {
+            ImportSink sink = new OrientDBSink(db);
+            runInTransaction(db, () -> {
+                handleBatch(sink, batch);
+                if (saved != null) {
+                    saved.save(db);
+                }
+            });
+        }
+        IngestMetrics.committed(tweetCount(batch));
     }
 
     /**
@@ -664,36 +947,407 @@ public class Main {
      *       It has weird eof in between each JSON object
      *       Therefore requires us to only read old lines, ex. 1, 3, 5, ...
      * If you want to read your file, please change the file reader filename
+     * Skipping even lines is done by TweetLineReader, which also reads gzip compressed Eurovision#.json.gz files
+     * Every batch commits an ImportCheckpoint, a file is continued from its checkpoint (see resumeImport) and a file
+     * that was imported to the end is skipped. A two-phase import (edgeSpill) neither loads nor saves checkpoints.
+     * A file ending with TweetLog.EXTENSION is a pre-processed TweetLog, read through its memory-mapped reader.
+     * @param db OrientDB TwitterDB connection
+     * @param fileLocation path of the Eurovision#.json, Eurovision#.json.gz or .tweetlog file
+     * @param batchSize number of tweets committed per transaction
+     */
+    static void importDataFromJson(ODatabaseSession db, String fileLocation, int batchSize) throws IOException, ParseException {
+        Path path = Paths.get(fileLocation);
+        String fileName = ImportCheckpoint.key(path);
+        ImportCheckpoint.createSchema(db);
+        if (aggregateCounters) {
+            AggregateCounters.createSchema(db);
+        }
+        if (hashtagCooccurrence) {
+            HashtagCooccurrence.createSchema(db);
+        }
+        ImportCheckpoint checkpoint = resumeImport && edgeSpill == null ? ImportCheckpoint.load(db, fileName)
+                : new ImportCheckpoint(fileName, 0, 0, 0);
+        if (checkpoint.offset > 0) {
+            System.out.println("Resume " + checkpoint);
+        }
+        if (TweetLog.isTweetLog(path)) {
+            importTweetLog(db, path, checkpoint, batchSize);
+        } else {
+            importJsonLines(db, path, checkpoint, batchSize);
+        }
+    }
+
+    /**
+     * Decode and import the tweet lines of a Eurovision#.json file from its checkpoint
+     */
+    private static void importJsonLines(ODatabaseSession db, Path path, ImportCheckpoint checkpoint, int batchSize) throws IOException, ParseException {
+        String fileName = checkpoint.file;
+        long batchNumber = checkpoint.batch;
+        TweetDecoder decoder = new TweetDecoder();
+        // Records are reused from batch to batch, a batch is committed before its records are decoded again
+        TweetRecord[] records = new TweetRecord[batchSize];
+        int size = 0;
+        try (TweetLineReader reader = TweetLineReader.open(path, checkpoint.offset, checkpoint.line)) {
+            while (reader.next()) {
+                if (records[size] == null) {
+                    records[size] = new TweetRecord();
+                }
+                long start = System.nanoTime();
+                decoder.decode(reader.buffer(), reader.lineStart(), reader.lineLength(), records[size++]);
+                IngestMetrics.record(IngestMetrics.Stage.DECODE, start);
+                if (size >= batchSize) {
+                    importBatch(db, Arrays.asList(records), new ImportCheckpoint(fileName, reader.offset(), reader.lineNumber(), ++batchNumber));
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                importBatch(db, Arrays.asList(records).subList(0, size), new ImportCheckpoint(fileName, reader.offset(), reader.lineNumber(), ++batchNumber));
+            }
+        }
+    }
+
+    /**
+     * Import the records of a TweetLog from its checkpoint, nothing to decode but the binary fields
+     * The checkpoint line_number counts records.
+     */
+    private static void importTweetLog(ODatabaseSession db, Path path, ImportCheckpoint checkpoint, int batchSize) throws IOException {
+        String fileName = checkpoint.file;
+        long batchNumber = checkpoint.batch;
+        TweetRecord[] records = new TweetRecord[batchSize];
+        int size = 0;
+        try (TweetLog.Reader reader = TweetLog.Reader.open(path, checkpoint.offset, checkpoint.line)) {
+            while (true) {
+                if (records[size] == null) {
+                    records[size] = new TweetRecord();
+                }
+                long start = System.nanoTime();
+                if (!reader.next(records[size])) {
+                    break;
+                }
+                IngestMetrics.record(IngestMetrics.Stage.DECODE, start);
+                if (++size >= batchSize) {
+                    importBatch(db, Arrays.asList(records), new ImportCheckpoint(fileName, reader.offset(), reader.recordNumber(), ++batchNumber));
+                    size = 0;
+                }
+            }
+            if (size > 0) {
+                importBatch(db, Arrays.asList(records).subList(0, size), new ImportCheckpoint(fileName, reader.offset(), reader.recordNumber(), ++batchNumber));
+            }
+        }
+    }
+
+    /**
+     * Read "--name value" style option from the command line arguments
+     * @param args command line arguments
+     * @param name option name, ex. "--tweet-cache"
+     * @param defaultValue value used when the option is not given
+     * @return option value
+     */
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @param args command line arguments
+     * @param name flag name, ex. "--two-phase"
+     * @return true if the flag is given
+     */
+    private static boolean hasFlag(String[] args, String name) {
+        return Arrays.asList(args).contains(name);
+    }
+
+    /**
+     * Resolve input option to the list of files to import
+     * @param input a file, a directory (every Eurovision*.json and Eurovision*.json.gz in it), or a glob such as data/Eurovision*.json
+     * @return matching files sorted by name
      */
-    private static void importDataFromJson(ODatabaseSession db, String fileLocation) throws IOException, ParseException {
-        JSONParser jsonParser = new JSONParser();
-        try (BufferedReader br = new BufferedReader(new FileReader(fileLocation))) {
-            int lineNum = 0;
-            String line;
-            while ((line = br.readLine()) != null) {
-                lineNum++;
-                if (lineNum % 2 == 0) {
-                    continue;
+    static List<Path> resolveInputFiles(String input) throws IOException {
+        Path path = Paths.get(input);
+        if (Files.isRegularFile(path)) {
+            return Collections.singletonList(path);
+        }
+        Path dir = path;
+        String glob = "Eurovision*.{json,json.gz}";
+        if (!Files.isDirectory(path)) {
+            dir = path.getParent() == null ? Paths.get(".") : path.getParent();
+            glob = path.getFileName().toString();
+        }
+        PathMatcher matcher = dir.getFileSystem().getPathMatcher("glob:" + glob);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file) && matcher.matches(file.getFileName())) {
+                    files.add(file);
                 }
-                JSONObject json = (JSONObject) jsonParser.parse(line);
-                handleEachTweet(db, json);
             }
         }
+        Collections.sort(files);
+        if (files.isEmpty()) {
+            throw new FileNotFoundException("No input file matches " + input);
+        }
+        return files;
+    }
+
+    /**
+     * Connect to OrientDB
+     *      remote:host                 through the server, full durability
+     *      embedded:dir, plocal:dir    bulk load in-process into dir/dbName, the directory can be served by a server afterwards
+     *      memory:                     bulk load in-process into an in-memory database, for tests
+     * Bulk load runs without write ahead log, so nothing is synced on commit: a crash during the load leaves a broken
+     * database to be deleted, not one to resume. Without WAL a failed commit cannot be rolled back either, so main
+     * runs at most one writer session. The database is created if it does not exist.
+     * @param url server or storage URL
+     * @param dbName database name
+     * @return OrientDB context, bulkLoad is set for in-process URLs
+     */
+    private static OrientDB openOrientDB(String url, String dbName) {
+        if (url.startsWith("remote:")) {
+            return new OrientDB(url, OrientDBConfig.defaultConfig());
+        }
+        bulkLoad = true;
+        OrientDBConfig bulkConfig = OrientDBConfig.builder()
+                .addConfig(OGlobalConfiguration.USE_WAL, false)
+                .addConfig(OGlobalConfiguration.WAL_SYNC_ON_PAGE_FLUSH, false)
+                .build();
+        ODatabaseType type = ODatabaseType.PLOCAL;
+        String path = url.substring(url.indexOf(':') + 1);
+        if (url.startsWith("memory:")) {
+            type = ODatabaseType.MEMORY;
+            path = "";
+        } else if (!url.startsWith("embedded:") && !url.startsWith("plocal:")) {
+            throw new IllegalArgumentException("Unknown OrientDB URL " + url);
+        }
+        OrientDB orient = new OrientDB("embedded:" + path, bulkConfig);
+        if (!orient.exists(dbName)) {
+            orient.create(dbName, type);
+        }
+        return orient;
+    }
+
+    /**
+     * Prepare a session of the importer, in bulk load mode declare the massive insert intent
+     * @param db OrientDB TwitterDB connection
+     */
+    static void prepareSession(ODatabaseSession db) {
+        if (bulkLoad) {
+            db.declareIntent(new OIntentMassiveInsert());
+        }
+    }
+
+    /**
+     * Print hit/miss counters of the record ID caches, use them to size --tweet-cache, --user-cache, --hashtag-cache
+     * and the plan cache hit rate of the SQL statements
+     */
+    private static void printCacheStats() {
+        System.out.println(tweetCache.stats("Tweet"));
+        System.out.println(userCache.stats("User"));
+        System.out.println(hashtagCache.stats("Hashtag"));
+        System.out.println(Statements.stats());
     }
 
 //    @SuppressWarnings("unchecked")
-    public static void main(String[] args) throws IOException, ParseException {
+    public static void main(String[] args) throws Exception {
+        tweetCache = new LongRidCache(Integer.parseInt(option(args, "--tweet-cache", "1048576")));
+        userCache = new LongRidCache(Integer.parseInt(option(args, "--user-cache", "262144")));
+        hashtagCache = new HashtagRidCache(Integer.parseInt(option(args, "--hashtag-cache", "65536")));
+        int batchSize = Integer.parseInt(option(args, "--batch-size", "500"));
+        // --writers > 0 runs the multi-threaded ImportPipeline instead of the single session import
+        int parsers = Integer.parseInt(option(args, "--parsers", "4"));
+        int writers = Integer.parseInt(option(args, "--writers", "0"));
+        String input = option(args, "--input", "C:/Users/17479/Desktop/java_test/src/main/resources/data/Eurovision8.json");
+        // --follow keeps importing the input while it grows, "-" or a named pipe as input is read until it is closed
+        boolean follow = hasFlag(args, "--follow");
+        List<Path> files = follow ? Collections.emptyList() : resolveInputFiles(input);
+        // --sink memory|null writes to a MemoryGraphSink / NullSink instead of OrientDB, to measure the import without
+        // the database: no connection, no counters, co-occurrence, spill or routing, the files of --input only
+        String sinkName = option(args, "--sink", "orientdb");
+        boolean orientSink = sinkName.equals("orientdb");
+        if (follow && !orientSink) {
+            throw new IllegalArgumentException("--follow commits its checkpoints to OrientDB, it cannot be used with --sink " + sinkName);
+        }
+        // --two-phase writes vertices first and creates every edge afterwards, so forward references keep their edges
+        boolean twoPhase = hasFlag(args, "--two-phase") && orientSink;
+        if (twoPhase && follow) {
+            throw new IllegalArgumentException("--two-phase creates the edges after the end of the input, it cannot be used with --follow");
+        }
+        if (twoPhase) {
+            Path spillDir = Paths.get(option(args, "--spill-dir", System.getProperty("java.io.tmpdir") + "/yas-edges"));
+            edgeSpill = new EdgeSpill(spillDir, Integer.parseInt(option(args, "--spill-run-size", "4000000")));
+        }
+        // --script sends each batch as one SQL batch script, two round-trips per batch over remote:
+        scriptImport = hasFlag(args, "--script");
+        // --restart ignores the checkpoints of earlier runs, o.w. every file continues after its last committed batch
+        resumeImport = !hasFlag(args, "--restart");
+        int edgeBatchSize = Integer.parseInt(option(args, "--edge-batch-size", "5000"));
+        // --partitioned routes tweets to writers by user_id and contain / retweet edges to the writer owning their
+        // target (EdgeRouter), not needed with --two-phase that creates every edge after the load
+        boolean partitioned = hasFlag(args, "--partitioned") && !twoPhase;
+        if (partitioned && scriptImport) {
+            throw new IllegalArgumentException("--script writes every edge of a batch in its own script, it cannot be used with --partitioned");
+        }
+        if (partitioned) {
+            // Edges of every vertex in a tree RidBag, adding one does not change the vertex record a second writer reads
+            OGlobalConfiguration.RID_BAG_EMBEDDED_TO_SBTREEBONSAI_THRESHOLD.setValue(-1);
+        }
+        // --no-counters skips the aggregate counters
+        aggregateCounters = !hasFlag(args, "--no-counters");
+        // --no-cooccurrence skips the hashtag pair counts of HashtagCooccurrence
+        hashtagCooccurrence = !hasFlag(args, "--no-cooccurrence");
+        // --tweet-clusters day|hour stores new tweets in one cluster per UTC day / hour of create_at
+        String tweetClusters = option(args, "--tweet-clusters", "none");
+        if (!tweetClusters.equals("none")) {
+            TweetClusters.setGranularity(TweetClusters.Granularity.valueOf(tweetClusters.toUpperCase()));
+        }
+        // --hashtag-storage embedded keeps the hashtags in the Tweet instead of Hashtag vertices and "contain" edges
+        hashtagStorage = HashtagStorage.valueOf(option(args, "--hashtag-storage", "vertex").toUpperCase());
+        // --index-profile only applies to indexes created by this run, existing ones are kept
+        IndexProfile indexProfile = IndexProfile.valueOf(option(args, "--index-profile", "ALL").toUpperCase());
+
+        if (!orientSink) {
+            aggregateCounters = false;
+            hashtagCooccurrence = false;
+            ImportSink sink;
+            if (sinkName.equals("memory")) {
+                sink = new MemoryGraphSink();
+            } else if (sinkName.equals("null")) {
+                sink = new NullSink();
+            } else {
+                throw new IllegalArgumentException("--sink orientdb|memory|null, not " + sinkName);
+            }
+            IngestMetrics.startProgress(Long.parseLong(option(args, "--progress", "10")));
+            new ImportPipeline(sink, parsers, Math.max(1, writers), batchSize, 2 * (parsers + writers)).run(files);
+            IngestMetrics.stopProgress();
+            System.out.println(IngestMetrics.summary());
+            System.out.println(sink);
+            return;
+        }
+
         //OrientDB connection
-        OrientDB orient = new OrientDB("remote:localhost", OrientDBConfig.defaultConfig());
-        ODatabaseSession db = orient.open("twitterdb", "root", "sc16041102");
+        // --url embedded:<dir> / plocal:<dir> / memory: loads in-process without WAL instead of through the server
+        String url = option(args, "--url", "remote:localhost");
+        String dbName = option(args, "--db", "twitterdb");
+        OrientDB orient = openOrientDB(url, dbName);
+        // A new embedded database only has the default admin user
+        String dbUser = option(args, "--user", bulkLoad ? "admin" : "root");
+        String dbPassword = option(args, "--password", bulkLoad ? "admin" : "sc16041102");
 
-        //create schemas for Tweets and Users, create relations
-//        createDataBase(db);
-        String fileLocation = "C:/Users/17479/Desktop/java_test/src/main/resources/data/Eurovision8.json";
-        importDataFromJson(db, fileLocation);
+        if (bulkLoad && writers > 1) {
+            // Without WAL a storage cannot roll back a commit that lost a race for a unique key, one writer never races
+            System.out.println("Bulk load uses 1 writer instead of " + writers);
+            writers = 1;
+        }
+        if (bulkLoad && follow && FollowImport.sourceCount(input) > 1) {
+            throw new IllegalArgumentException("--follow imports every file with its own writer, a bulk load follows one file only");
+        }
+        // Every writer adds to the same hot counters and pairs (the hashtag hour, retweeted originals, the pairs of the
+        // busiest hashtags), one writer owns them
+        int concurrentWriters = follow ? FollowImport.sourceCount(input) : writers;
+        if (aggregateCounters && concurrentWriters > 1) {
+            System.out.println("Aggregate counters are off with " + concurrentWriters + " writers");
+            aggregateCounters = false;
+        }
+        if (hashtagCooccurrence && concurrentWriters > 1) {
+            System.out.println("Hashtag co-occurrence is off with " + concurrentWriters + " writers");
+            hashtagCooccurrence = false;
+        }
 
+        // --progress prints throughput every given number of seconds, 0 for none
+        IngestMetrics.startProgress(Long.parseLong(option(args, "--progress", "10")));
+
+        //create schemas for Tweets and Users, create relations
+        if (bulkLoad || hasFlag(args, "--create-schema")) {
+            try (ODatabaseSession db = orient.open(dbName, dbUser, dbPassword)) {
+                createDataBase(db, indexProfile);
+            }
+        }
+        try (ODatabaseSession db = orient.open(dbName, dbUser, dbPassword)) {
+            if (aggregateCounters) {
+                AggregateCounters.createSchema(db);
+            }
+            if (hashtagCooccurrence) {
+                HashtagCooccurrence.createSchema(db);
+            }
+            hashtagStorage.createSchema(db);
+            if (partitioned) {
+                EdgeRouter.createSchema(db);
+            }
+            if (follow || writers > 1) {
+                IndexProfile.requireUniqueKeys(db);
+            }
+        }
+        if (follow) {
+            try (ODatabaseSession db = orient.open(dbName, dbUser, dbPassword)) {
+                ImportCheckpoint.createSchema(db);
+            }
+            try (ODatabasePool pool = new ODatabasePool(orient, dbName, dbUser, dbPassword)) {
+                new FollowImport(pool, batchSize, Long.parseLong(option(args, "--max-latency-ms", "1000")),
+                        Long.parseLong(option(args, "--poll-ms", "200")), Long.parseLong(option(args, "--idle-exit", "0")),
+                        resumeImport).run(input);
+            }
+        } else if (writers > 0) {
+            OrientDBConfig poolConfig = OrientDBConfig.builder().addConfig(OGlobalConfiguration.DB_POOL_MAX, writers).build();
+            EdgeRouter router = partitioned ? new EdgeRouter(writers, batchSize) : null;
+            edgeRouter = router;
+            if (router != null) {
+                try (ODatabaseSession db = orient.open(dbName, dbUser, dbPassword)) {
+                    router.recover(db);
+                }
+                TransactionListeners.register(router);
+            }
+            try (ODatabasePool pool = new ODatabasePool(orient, dbName, dbUser, dbPassword, poolConfig)) {
+                new ImportPipeline(pool, parsers, writers, batchSize, 2 * (parsers + writers), router).run(files);
+            } finally {
+                if (router != null) {
+                    TransactionListeners.unregister(router);
+                }
+                edgeRouter = null;
+            }
+            if (router != null) {
+                System.out.println(router.stats());
+            }
+        } else {
+            ODatabaseSession db = orient.open(dbName, dbUser, dbPassword);
+            prepareSession(db);
+            for (Path file : files) {
+                importDataFromJson(db, file.toString(), batchSize);
+            }
+            db.close();
+        }
+        if (twoPhase) {
+            EdgeSpill spill = edgeSpill;
+            edgeSpill = null;
+            try (ODatabaseSession db = orient.open(dbName, dbUser, dbPassword)) {
+                prepareSession(db);
+                spill.resolve(db, edgeBatchSize);
+            } finally {
+                spill.close();
+            }
+            System.out.println(spill.stats());
+        }
+        if (indexProfile == IndexProfile.DEFERRED) {
+            long start = System.currentTimeMillis();
+            try (ODatabaseSession db = orient.open(dbName, dbUser, dbPassword)) {
+                indexProfile.buildDeferred(db);
+            }
+            System.out.println("Deferred indexes built in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        if (bulkLoad) {
+            // Index pages written without WAL are rebuilt in one pass before the database is handed to a server
+            long start = System.currentTimeMillis();
+            try (ODatabaseSession db = orient.open(dbName, dbUser, dbPassword)) {
+                Statements.command(db, Statements.REBUILD_INDEXES);
+            }
+            System.out.println("Indexes rebuilt in " + (System.currentTimeMillis() - start) + " ms");
+        }
+        IngestMetrics.stopProgress();
+        System.out.println(IngestMetrics.summary());
+        printCacheStats();
 
-        db.close();
         orient.close();
     }
 
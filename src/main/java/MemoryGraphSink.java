@@ -0,0 +1,224 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ImportSink keeping the graph in memory (--sink memory): the same vertices, properties and edges as the database,
+ * as plain Java objects
+ * Vertices are found by key in concurrent hash maps, the counterpart of the record ID caches and unique indexes, and
+ * every edge is linked on both vertices, scanned on the Tweet side to skip duplicates like Main.hasEdge. The import
+ * then costs everything but the database, and its counts can be compared with an OrientDB import of the same input.
+ * NOTE: the whole graph stays on the heap, size it for the input. Nothing survives the process.
+ */
+public class MemoryGraphSink implements ImportSink {
+
+    /**
+     * Vertex of class Tweet, User or Hashtag
+     */
+    static final class Vertex {
+        final String label;
+        // Creation order, also the order two vertices are locked in
+        final long sequence;
+        private final Map<String, Object> properties = new HashMap<>();
+        private final Map<String, List<Vertex>> out = new HashMap<>(4);
+        private final Map<String, List<Vertex>> in = new HashMap<>(4);
+
+        private Vertex(String label, long sequence) {
+            this.label = label;
+            this.sequence = sequence;
+        }
+
+        synchronized Object getProperty(String name) {
+            return properties.get(name);
+        }
+
+        synchronized void setProperty(String name, Object value) {
+            properties.put(name, value);
+        }
+
+        /**
+         * @param edgeLabel edge class name
+         * @return copy of the in vertices of the out edges of this class
+         */
+        synchronized List<Vertex> out(String edgeLabel) {
+            return new ArrayList<>(out.getOrDefault(edgeLabel, Collections.emptyList()));
+        }
+
+        /**
+         * @param edgeLabel edge class name
+         * @return copy of the out vertices of the in edges of this class
+         */
+        synchronized List<Vertex> in(String edgeLabel) {
+            return new ArrayList<>(in.getOrDefault(edgeLabel, Collections.emptyList()));
+        }
+    }
+
+    private final Map<Long, Vertex> tweets = new ConcurrentHashMap<>();
+    private final Map<Long, Vertex> users = new ConcurrentHashMap<>();
+    private final Map<String, Vertex> hashtags = new ConcurrentHashMap<>();
+    private final Map<String, AtomicLong> edges = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    @Override
+    public void write(List<TweetRecord> batch, ImportCheckpoint checkpoint) {
+        Main.handleBatch(this, batch);
+        IngestMetrics.commitDrops();
+        IngestMetrics.committed(Main.tweetCount(batch));
+    }
+
+    /**
+     * @param tweetId given tweet_id
+     * @return Tweet vertex, null if not in the graph
+     */
+    Vertex tweet(long tweetId) {
+        return tweets.get(tweetId);
+    }
+
+    /**
+     * @param userId given user_id
+     * @return User vertex, null if not in the graph
+     */
+    Vertex user(long userId) {
+        return users.get(userId);
+    }
+
+    /**
+     * @param hashtag given normalized hashtag
+     * @return Hashtag vertex, null if not in the graph
+     */
+    Vertex hashtag(String hashtag) {
+        return hashtags.get(hashtag);
+    }
+
+    @Override
+    public boolean hasTweet(long tweetId) {
+        return tweets.containsKey(tweetId);
+    }
+
+    @Override
+    public boolean hasUser(long userId) {
+        return users.containsKey(userId);
+    }
+
+    @Override
+    public boolean hasHashtag(String hashtag) {
+        return hashtags.containsKey(hashtag);
+    }
+
+    @Override
+    public void createTweet(long tweetId, Date createAt, String text, long userId, String geo, long retweetId, long replyId, long quoteId, List<String> hashtags) {
+        Vertex tweet = new Vertex("Tweet", sequence.incrementAndGet());
+        tweet.setProperty("tweet_id", tweetId);
+        tweet.setProperty("create_at", createAt);
+        tweet.setProperty("text", text);
+        tweet.setProperty("user_id", userId);
+        tweet.setProperty("geo", geo);
+        tweet.setProperty("retweet_id", retweetId);
+        tweet.setProperty("reply_id", replyId);
+        tweet.setProperty("quote_id", quoteId);
+        if (hashtags != null) {
+            tweet.setProperty("hashtag", HashtagStorage.distinct(hashtags));
+        }
+        // The first writer wins, as with the unique tweet_id index
+        tweets.putIfAbsent(tweetId, tweet);
+    }
+
+    @Override
+    public void createUser(long userId, String screenName, String country, boolean verified) {
+        Vertex user = new Vertex("User", sequence.incrementAndGet());
+        user.setProperty("user_id", userId);
+        user.setProperty("screen_name", screenName);
+        user.setProperty("country", country);
+        user.setProperty("verified", verified);
+        users.putIfAbsent(userId, user);
+    }
+
+    @Override
+    public void createHashtag(String hashtag) {
+        Vertex vertex = new Vertex("Hashtag", sequence.incrementAndGet());
+        vertex.setProperty("hashtag", hashtag);
+        hashtags.putIfAbsent(hashtag, vertex);
+    }
+
+    private void createEdge(Vertex from, Vertex to, String label) {
+        if (from == null || to == null) {
+            IngestMetrics.droppedEdge(label);
+            return;
+        }
+        Vertex first = from.sequence <= to.sequence ? from : to;
+        Vertex second = first == from ? to : from;
+        synchronized (first) {
+            synchronized (second) {
+                // Scan the Tweet side, a User or Hashtag vertex can have a very large number of edges
+                List<Vertex> scanned = "post".equals(label) ? to.in.get(label) : from.out.get(label);
+                Vertex other = "post".equals(label) ? from : to;
+                if (scanned != null && scanned.contains(other)) {
+                    return;
+                }
+                from.out.computeIfAbsent(label, k -> new ArrayList<>(1)).add(to);
+                to.in.computeIfAbsent(label, k -> new ArrayList<>(1)).add(from);
+            }
+        }
+        edges.computeIfAbsent(label, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    @Override
+    public void createPostEdge(long userId, long tweetId) {
+        createEdge(users.get(userId), tweets.get(tweetId), "post");
+    }
+
+    @Override
+    public void createRetweetEdge(long tweetId, long retweetId) {
+        createEdge(tweets.get(tweetId), tweets.get(retweetId), "retweet");
+    }
+
+    @Override
+    public void createReplyEdge(long tweetId, long replyId) {
+        createEdge(tweets.get(tweetId), tweets.get(replyId), "reply");
+    }
+
+    @Override
+    public void createQuoteEdge(long tweetId, long quoteId) {
+        createEdge(tweets.get(tweetId), tweets.get(quoteId), "quote");
+    }
+
+    @Override
+    public void createContainEdge(long tweetId, String hashtag) {
+        createEdge(tweets.get(tweetId), hashtags.get(hashtag), "contain");
+    }
+
+    @Override
+    public void updateReplyId(long tweetId, long replyId) {
+        Vertex tweet = tweets.get(tweetId);
+        if (tweet != null) {
+            tweet.setProperty("reply_id", replyId);
+        }
+    }
+
+    @Override
+    public void updateQuoteId(long tweetId, long quoteId) {
+        Vertex tweet = tweets.get(tweetId);
+        if (tweet != null) {
+            tweet.setProperty("quote_id", quoteId);
+        }
+    }
+
+    /**
+     * @return one line summary of the vertices and edges of the graph
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(String.format("Memory graph: Tweet=%d User=%d Hashtag=%d", tweets.size(),
+                users.size(), hashtags.size()));
+        for (String label : new String[]{"post", "retweet", "reply", "quote", "contain"}) {
+            AtomicLong count = edges.get(label);
+            sb.append(' ').append(label).append('=').append(count == null ? 0 : count.get());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ImportSink that only counts what it is asked to write (--sink null)
+ * The import then costs reading, decoding, batching and the decisions of Main.handleEachTweet, the throughput ceiling
+ * of the pipeline in front of any database.
+ * NOTE: no vertex is ever found, so every line takes the path of a new tweet (and every retweet creates its original):
+ *       the counts are calls, not distinct vertices and edges, and no edge is dropped.
+ */
+public class NullSink implements ImportSink {
+    private final LongAdder tweets = new LongAdder();
+    private final LongAdder users = new LongAdder();
+    private final LongAdder hashtags = new LongAdder();
+    private final LongAdder edges = new LongAdder();
+    private final LongAdder updates = new LongAdder();
+
+    @Override
+    public void write(List<TweetRecord> batch, ImportCheckpoint checkpoint) {
+        Main.handleBatch(this, batch);
+        IngestMetrics.commitDrops();
+        IngestMetrics.committed(Main.tweetCount(batch));
+    }
+
+    @Override
+    public boolean hasTweet(long tweetId) {
+        return false;
+    }
+
+    @Override
+    public boolean hasUser(long userId) {
+        return false;
+    }
+
+    @Override
+    public boolean hasHashtag(String hashtag) {
+        return false;
+    }
+
+    @Override
+    public void createTweet(long tweetId, Date createAt, String text, long userId, String geo, long retweetId, long replyId, long quoteId, List<String> hashtags) {
+        tweets.increment();
+    }
+
+    @Override
+    public void createUser(long userId, String screenName, String country, boolean verified) {
+        users.increment();
+    }
+
+    @Override
+    public void createHashtag(String hashtag) {
+        hashtags.increment();
+    }
+
+    @Override
+    public void createPostEdge(long userId, long tweetId) {
+        edges.increment();
+    }
+
+    @Override
+    public void createRetweetEdge(long tweetId, long retweetId) {
+        edges.increment();
+    }
+
+    @Override
+    public void createReplyEdge(long tweetId, long replyId) {
+        edges.increment();
+    }
+
+    @Override
+    public void createQuoteEdge(long tweetId, long quoteId) {
+        edges.increment();
+    }
+
+    @Override
+    public void createContainEdge(long tweetId, String hashtag) {
+        edges.increment();
+    }
+
+    @Override
+    public void updateReplyId(long tweetId, long replyId) {
+        updates.increment();
+    }
+
+    @Override
+    public void updateQuoteId(long tweetId, long quoteId) {
+        updates.increment();
+    }
+
+    /**
+     * @return one line summary of the calls received
+     */
+    @Override
+    public String toString() {
+        return String.format("Null sink: %,d tweets, %,d users, %,d hashtags, %,d edges, %,d updates", tweets.sum(),
+                users.sum(), hashtags.sum(), edges.sum(), updates.sum());
+    }
+}
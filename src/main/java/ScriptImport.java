@@ -0,0 +1,357 @@
+import com.orientechnologies.common.concur.ONeedRetryException;
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Script ingest mode (--script): a batch of tweets is written by one server-side SQL batch script
+ * Round-trips per batch:
+ *      1. Statements.TWEET_EDGES: which of the tweet IDs referenced by the batch are already in the database, with
+ *         the targets of their retweet, reply and quote edges
+ *      2. BEGIN; ... COMMIT; with every write of the batch, values bound as named parameters
+ *
+ * The script has the same effect as Main.handleEachTweet, the decisions it takes on "tweet exists" are taken here from
+ * the result of 1. and the tweets created earlier in the batch, so the script itself is writes only:
+ *      CREATE VERTEX Tweet SET ...
+ *      UPDATE User SET user_id = ? UPSERT WHERE user_id = ?, then the other properties WHERE ... AND verified IS NULL
+ *      UPDATE Hashtag SET hashtag = ? UPSERT WHERE hashtag = ?
+ *      CREATE EDGE label FROM (SELECT FROM ... WHERE key = ?) TO (SELECT FROM ... WHERE key = ?)
+ *      UPDATE ImportCheckpoint SET ... UPSERT WHERE file = ?, if the batch is checkpointed
+ * reply_id / quote_id of an existing tweet are not in the script, they go to TweetPatches like in handleEachTweet.
+ * The statements of the TransactionListeners (counters, hashtag pairs) are appended before COMMIT.
+ * A tweet to tweet edge is only created if 1. did not return it, so a replayed batch or a duplicate line adds no second
+ * edge. "post" and "contain" edges only come with a new Tweet vertex and cannot exist before.
+ * NOTE: IF blocks are not used, OrientDB 3.0.0 only runs the first statement of an IF body in a script.
+ *       A User is created if missing like in handleEachTweet: the UPSERT only sets user_id, the second UPDATE only
+ *       matches a User whose verified is not set yet, which is the one the UPSERT just created.
+ *       The record ID caches of Main are not used, new vertices get their record ID on the server only.
+ */
+public class ScriptImport {
+    private static final String[] TWEET_EDGE_LABELS = {"retweet", "reply", "quote"};
+
+    private final EdgeSpill edgeSpill;
+    private final StringBuilder script = new StringBuilder();
+    private final Map<String, Object> params = new HashMap<>();
+    // Parameter name of every bound value, a value used by several statements is sent once
+    private final Map<Object, String> names = new HashMap<>();
+    // Tweet IDs that exist in the database or are created earlier in this script
+    private final Set<Long> tweets = new HashSet<>();
+    // User IDs created if missing earlier in this script
+    private final Set<Long> users = new HashSet<>();
+    // "label from to" of the tweet to tweet edges in the database or created earlier in this script
+    private final Set<String> edges = new HashSet<>();
+
+    /**
+     * @param edgeSpill two-phase edge list, edges are added to it instead of the script, null o.w.
+     */
+    private ScriptImport(EdgeSpill edgeSpill) {
+        this.edgeSpill = edgeSpill;
+    }
+
+    /**
+     * Write a group of tweets with one batch script, replayed as a whole on conflicts
+     * @param db OrientDB TwitterDB connection
+     * @param batch decoded tweets of this group
+     * @param edgeSpill two-phase edge list, null if edges are created right away
+     * @param checkpoint position after the last line of batch, saved by the same script, null if not checkpointed
+     * @param maxRetries replays after concurrent modification conflicts before giving up
+     */
+    static void importBatch(ODatabaseSession db, List<TweetRecord> batch, EdgeSpill edgeSpill, ImportCheckpoint checkpoint, int maxRetries) {
+        for (int attempt = 1; ; attempt++) {
+            long start = System.nanoTime();
+            ScriptImport builder = new ScriptImport(edgeSpill);
+            builder.findExistingTweets(db, batch);
+            for (TweetRecord tweet : batch) {
+                builder.addTweet(tweet);
+            }
+            if (checkpoint != null) {
+                builder.saveCheckpoint(checkpoint);
+            }
+            TransactionListeners.beforeCommit(builder::addStatement);
+            try {
+                builder.execute(db);
+                IngestMetrics.record(IngestMetrics.Stage.SCRIPT, start);
+                TransactionListeners.committed();
+                return;
+            } catch (ONeedRetryException | ORecordDuplicatedException e) {
+                // A failed script leaves its transaction open in the session
+                if (db.getTransaction().isActive()) {
+                    db.rollback();
+                }
+                TransactionListeners.discarded();
+                db.getLocalCache().invalidate();
+                if (attempt >= maxRetries) {
+                    throw e;
+                }
+                IngestMetrics.replayed();
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextInt(10 * attempt));
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    throw e;
+                }
+            } catch (RuntimeException e) {
+                if (db.getTransaction().isActive()) {
+                    db.rollback();
+                }
+                TransactionListeners.discarded();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Look up every tweet ID the batch refers to (tweet, retweet, reply and quote targets) and their tweet to tweet
+     * edges with one query
+     */
+    private void findExistingTweets(ODatabaseSession db, List<TweetRecord> batch) {
+        Set<Long> ids = new HashSet<>();
+        for (TweetRecord tweet : batch) {
+            if (tweet.limit) {
+                continue;
+            }
+            ids.add(tweet.id);
+            ids.add(tweet.inReplyToStatusId);
+            ids.add(tweet.quotedStatusId);
+            if (tweet.hasRetweet) {
+                ids.add(tweet.retweet.id);
+                ids.add(tweet.retweet.inReplyToStatusId);
+            }
+        }
+        ids.remove(-1L);
+        if (ids.isEmpty()) {
+            return;
+        }
+        try (OResultSet rs = Statements.query(db, Statements.TWEET_EDGES, new ArrayList<>(ids))) {
+            while (rs.hasNext()) {
+                OResult result = rs.next();
+                long id = result.getProperty("tweet_id");
+                tweets.add(id);
+                for (String label : TWEET_EDGE_LABELS) {
+                    Collection<Long> targets = result.getProperty(label);
+                    if (targets != null) {
+                        for (Long target : targets) {
+                            edges.add(edgeKey(label, id, target));
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private void execute(ODatabaseSession db) {
+        if (script.length() == 0) {
+            return;
+        }
+        script.insert(0, "BEGIN;\n").append("COMMIT;\n");
+        try (OResultSet rs = db.execute("sql", script.toString(), params)) {
+            while (rs.hasNext()) {
+                rs.next();
+            }
+        }
+    }
+
+    /**
+     * @return ":name" placeholder bound to given value
+     */
+    private String param(Object value) {
+        String name = names.get(value);
+        if (name == null) {
+            name = "p" + names.size();
+            names.put(value, name);
+            params.put(name, value);
+        }
+        return ":" + name;
+    }
+
+    private void createTweet(TweetRecord tweet, long retweetId, long replyId, long quoteId, List<String> hashtags) {
+        Date createAt = Main.convertTimeToDate(tweet.createdAt);
+        String cluster = TweetClusters.clusterOf(createAt);
+        script.append("CREATE VERTEX Tweet ").append(cluster == null ? "" : "CLUSTER " + cluster + " ")
+                .append("SET tweet_id = ").append(param(tweet.id))
+                .append(", create_at = ").append(param(createAt))
+                .append(", text = ").append(param(tweet.text))
+                .append(", user_id = ").append(param(tweet.userId))
+                .append(", geo = ").append(param(tweet.placeCountry))
+                .append(", retweet_id = ").append(param(retweetId))
+                .append(", reply_id = ").append(param(replyId))
+                .append(", quote_id = ").append(param(quoteId));
+        if (hashtags != null) {
+            script.append(", hashtag = ").append(param(HashtagStorage.distinct(hashtags)));
+        }
+        script.append(";\n");
+        tweets.add(tweet.id);
+        if (Main.aggregateCounters) {
+            AggregateCounters.tweet(tweet.userId, retweetId, replyId);
+        }
+    }
+
+    private void createUserIfMissing(TweetRecord tweet) {
+        if (!users.add(tweet.userId)) {
+            return;
+        }
+        String userId = param(tweet.userId);
+        script.append("UPDATE User SET user_id = ").append(userId).append(" UPSERT WHERE user_id = ").append(userId).append(";\n");
+        script.append("UPDATE User SET screen_name = ").append(param(tweet.userScreenName))
+                .append(", country = ").append(param(tweet.userLocation))
+                .append(", verified = ").append(param(tweet.userVerified))
+                .append(" WHERE user_id = ").append(userId).append(" AND verified IS NULL;\n");
+    }
+
+    private void upsertHashtag(String hashtag) {
+        String name = param(hashtag);
+        script.append("UPDATE Hashtag SET hashtag = ").append(name).append(" UPSERT WHERE hashtag = ").append(name).append(";\n");
+    }
+
+    private void createEdge(String label, String fromClass, String fromKey, Object from, String toClass, String toKey, Object to) {
+        script.append("CREATE EDGE ").append(label)
+                .append(" FROM (SELECT FROM ").append(fromClass).append(" WHERE ").append(fromKey).append(" = ").append(param(from))
+                .append(") TO (SELECT FROM ").append(toClass).append(" WHERE ").append(toKey).append(" = ").append(param(to))
+                .append(");\n");
+    }
+
+    /**
+     * Tweet to tweet edge, created only if both tweets exist, like Main.createEdge; spilled in two-phase mode
+     */
+    private void createTweetEdge(int kind, String label, long from, long to) {
+        if (edgeSpill != null) {
+            edgeSpill.add(kind, from, to);
+        } else if (!tweets.contains(from) || !tweets.contains(to)) {
+            IngestMetrics.droppedEdge(label);
+        } else if (edges.add(edgeKey(label, from, to))) {
+            createEdge(label, "Tweet", "tweet_id", from, "Tweet", "tweet_id", to);
+        }
+    }
+
+    /**
+     * Append a statement of Statements, every ? bound to the next value
+     */
+    private void addStatement(String sql, Object... args) {
+        int arg = 0;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '?') {
+                script.append(param(args[arg++]));
+            } else {
+                script.append(c);
+            }
+        }
+        script.append(";\n");
+    }
+
+    private static String edgeKey(String label, long from, long to) {
+        return label + " " + from + " " + to;
+    }
+
+    private void createPostEdge(long userId, long tweetId) {
+        if (edgeSpill != null) {
+            edgeSpill.add(EdgeSpill.POST, userId, tweetId);
+        } else {
+            createEdge("post", "User", "user_id", userId, "Tweet", "tweet_id", tweetId);
+        }
+    }
+
+    private void createContainEdge(long tweetId, String hashtag) {
+        if (edgeSpill != null) {
+            edgeSpill.addContain(tweetId, hashtag);
+        } else {
+            createEdge("contain", "Tweet", "tweet_id", tweetId, "Hashtag", "hashtag", hashtag);
+        }
+    }
+
+    private void saveCheckpoint(ImportCheckpoint checkpoint) {
+        String file = param(checkpoint.file);
+        script.append("UPDATE ImportCheckpoint SET file = ").append(file)
+                .append(", byte_offset = ").append(param(checkpoint.offset))
+                .append(", line_number = ").append(param(checkpoint.line))
+                .append(", batch_number = ").append(param(checkpoint.batch))
+                .append(" UPSERT WHERE file = ").append(file).append(";\n");
+    }
+
+    /**
+     * Append the writes of one tweet, same decisions as Main.handleEachTweet
+     */
+    private void addTweet(TweetRecord tweet) {
+        if (tweet.limit) {
+            return;
+        }
+        long tweetId = tweet.id;
+        long retweetId = -1;
+        TweetRecord retweet = tweet.hasRetweet ? tweet.retweet : null;
+        if (retweet != null) {
+            retweetId = retweet.id;
+        }
+        if (retweet != null && !tweets.contains(retweetId)) {
+            // Retweet retweet_id and quote_id not presented, set to -1 for future update
+            long rtReplyId = retweet.inReplyToStatusId;
+            createTweet(retweet, -1, rtReplyId, -1, null);
+            createUserIfMissing(retweet);
+            createPostEdge(retweet.userId, retweetId);
+            if (rtReplyId != -1) {
+                createTweetEdge(EdgeSpill.REPLY, "reply", retweetId, rtReplyId);
+            }
+        } else if (retweet != null && tweets.contains(tweetId)) {
+            // Retweet already in database, the tweet too (replayed line), otherwise the edge is created (or spilled) once
+            // with the tweet below
+            createTweetEdge(EdgeSpill.RETWEET, "retweet", tweetId, retweetId);
+        }
+
+        long replyId = tweet.inReplyToStatusId;
+        long quoteId = tweet.quotedStatusId;
+
+        if (tweets.contains(tweetId)) {
+            // Tweet already in database, update reply_id and quote_id, and insert corresponding "reply", "quote" relationship
+            if (replyId != -1 && (edgeSpill != null || tweets.contains(replyId))) {
+                createTweetEdge(EdgeSpill.REPLY, "reply", tweetId, replyId);
+                TweetPatches.reply(tweetId, replyId);
+            }
+            if (quoteId != -1 && (edgeSpill != null || tweets.contains(quoteId))) {
+                createTweetEdge(EdgeSpill.QUOTE, "quote", tweetId, quoteId);
+                TweetPatches.quote(tweetId, quoteId);
+            }
+            return;
+        }
+
+        createTweet(tweet, retweetId, replyId, quoteId, Main.hashtagStorage == HashtagStorage.EMBEDDED ? tweet.hashtags : null);
+        createUserIfMissing(tweet);
+        createPostEdge(tweet.userId, tweetId);
+        if (retweetId != -1) {
+            createTweetEdge(EdgeSpill.RETWEET, "retweet", tweetId, retweetId);
+        }
+        if (replyId != -1) {
+            createTweetEdge(EdgeSpill.REPLY, "reply", tweetId, replyId);
+        }
+        if (quoteId != -1) {
+            createTweetEdge(EdgeSpill.QUOTE, "quote", tweetId, quoteId);
+        }
+        for (int i = 0; i < tweet.hashtags.size(); i++) {
+            String hashtag = tweet.hashtags.get(i);
+            if (Main.hashtagStorage == HashtagStorage.VERTEX) {
+                upsertHashtag(hashtag);
+            }
+            // A hashtag used twice by the tweet gets one "contain" edge
+            if (tweet.hashtags.indexOf(hashtag) == i) {
+                if (Main.hashtagStorage == HashtagStorage.VERTEX) {
+                    createContainEdge(tweetId, hashtag);
+                }
+                if (Main.aggregateCounters) {
+                    AggregateCounters.hashtag(hashtag, Main.convertTimeToDate(tweet.createdAt));
+                }
+            }
+        }
+        if (Main.hashtagCooccurrence) {
+            HashtagCooccurrence.tweet(tweet.hashtags);
+        }
+    }
+}
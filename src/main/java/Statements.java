@@ -0,0 +1,173 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentEmbedded;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.sql.executor.OExecutionPlan;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+import com.orientechnologies.orient.core.sql.parser.OExecutionPlanCache;
+
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Every SQL statement the importer runs, with bound parameters instead of String.format
+ * OrientDB caches execution plans by statement text, so a constant text is parsed and planned once and then
+ * reused for every tweet, and values such as hashtags with quotes can no longer break the statement.
+ *
+ * Executions are counted per statement text. With an in-process database every execution also looks up its text in
+ * the OExecutionPlanCache of the storage first: a hit reuses the plan, a miss is a statement that was never planned,
+ * evicted (OGlobalConfiguration.STATEMENT_CACHE_SIZE), invalidated by a schema or index change (TweetClusters,
+ * createSchema of the counters), or one OrientDB does not cache (UPDATE, DDL). A remote session cannot see the
+ * server cache, only texts and executions are counted.
+ * The latency of every execution goes to the per statement histograms of IngestMetrics, for a query from the call to
+ * the close of its result set.
+ */
+public class Statements {
+    static final String TWEET_RID = "SELECT @rid AS rid FROM Tweet WHERE tweet_id = ?";
+    static final String USER_RID = "SELECT @rid AS rid FROM User WHERE user_id = ?";
+    static final String HASHTAG_RID = "SELECT @rid AS rid FROM Hashtag WHERE hashtag = ?";
+    // Through the index, a class query cannot evaluate IN on the UNIQUE_HASH_INDEX of tweet_id in OrientDB 3.0.0
+    static final String TWEET_EDGES = "SELECT tweet_id, out('retweet').tweet_id AS retweet, out('reply').tweet_id AS reply, "
+            + "out('quote').tweet_id AS quote FROM (SELECT expand(rid) FROM INDEX:Tweet_id_index WHERE key IN ?)";
+    static final String UPDATE_REPLY_ID = "UPDATE Tweet SET reply_id = ? WHERE tweet_id = ? AND (reply_id IS NULL OR reply_id <> ?)";
+    static final String UPDATE_QUOTE_ID = "UPDATE Tweet SET quote_id = ? WHERE tweet_id = ? AND (quote_id IS NULL OR quote_id <> ?)";
+    static final String ROUTED_EDGES = "SELECT @rid AS rid, kind, tweet_id, target, hashtag FROM RoutedEdge";
+    static final String REBUILD_INDEXES = "REBUILD INDEX *";
+    static final String CHECKPOINT = "SELECT byte_offset, line_number, batch_number FROM ImportCheckpoint WHERE file = ?";
+    static final String SAVE_CHECKPOINT = "UPDATE ImportCheckpoint SET file = ?, byte_offset = ?, line_number = ?, batch_number = ? UPSERT WHERE file = ?";
+    static final String ADD_USER_COUNTS = "UPDATE User SET post_count = ifnull(post_count, 0) + ?, retweet_count = ifnull(retweet_count, 0) + ?, "
+            + "reply_count = ifnull(reply_count, 0) + ? WHERE user_id = ?";
+    static final String ADD_RETWEETED_COUNT = "UPDATE Tweet SET retweeted_count = ifnull(retweeted_count, 0) + ? WHERE tweet_id = ?";
+    static final String ADD_HASHTAG_USES = "UPDATE HashtagHour SET hashtag = ?, hour = ?, uses = ifnull(uses, 0) + ? UPSERT WHERE hashtag = ? AND hour = ?";
+    static final String USER_COUNTS = "SELECT post_count, retweet_count, reply_count FROM User WHERE user_id = ?";
+    static final String RETWEETED_COUNT = "SELECT retweeted_count FROM Tweet WHERE tweet_id = ?";
+    static final String HASHTAG_USES = "SELECT uses FROM HashtagHour WHERE hashtag = ? AND hour = ?";
+    static final String TOP_HASHTAGS = "SELECT hashtag, uses FROM HashtagHour WHERE hour = ? ORDER BY uses DESC LIMIT ?";
+    static final String ADD_PAIR_USES = "UPDATE HashtagPair SET hashtag = ?, other = ?, uses = ifnull(uses, 0) + ? UPSERT WHERE hashtag = ? AND other = ?";
+    static final String PAIR_USES = "SELECT uses FROM HashtagPair WHERE hashtag = ? AND other = ?";
+    static final String TOP_PAIRS = "SELECT other, uses FROM HashtagPair WHERE hashtag = ? ORDER BY uses DESC LIMIT ?";
+    // %s is the name of a time cluster of Tweet, see TweetClusters
+    static final String TWEETS_PER_MINUTE = "SELECT create_at.format('yyyy-MM-dd HH:mm', 'UTC') AS minute, count(*) AS tweets FROM cluster:%s "
+            + "WHERE create_at >= ? AND create_at < ? GROUP BY minute ORDER BY minute";
+    static final String HASHTAG_TWEETS = "SELECT expand(in('contain')) FROM Hashtag WHERE hashtag = ?";
+    // The 3.0.0 planner scans the class for "hashtag CONTAINS ?", the index of the list is read directly
+    static final String EMBEDDED_HASHTAG_TWEETS = "SELECT rid.tweet_id AS tweet_id FROM index:Tweet_hashtag_index WHERE key = ?";
+    static final String GRAPH_TWEETS = "SELECT tweet_id FROM Tweet";
+    static final String GRAPH_POSTS = "SELECT out.user_id AS source, in.tweet_id AS target FROM post";
+    static final String GRAPH_RETWEETS = "SELECT out.tweet_id AS source, in.tweet_id AS target FROM retweet";
+    static final String GRAPH_REPLIES = "SELECT out.tweet_id AS source, in.tweet_id AS target FROM reply";
+    static final String GRAPH_QUOTES = "SELECT out.tweet_id AS source, in.tweet_id AS target FROM quote";
+
+    private static final Map<String, LongAdder> executions = new ConcurrentHashMap<>();
+    private static final LongAdder planLookups = new LongAdder();
+    private static final LongAdder planHits = new LongAdder();
+
+    private static void count(ODatabaseSession db, String sql) {
+        executions.computeIfAbsent(sql, k -> new LongAdder()).increment();
+        if (db instanceof ODatabaseDocumentEmbedded) {
+            OExecutionPlanCache cache = ((ODatabaseDocumentEmbedded) db).getSharedContext().getExecutionPlanCache();
+            planLookups.increment();
+            if (cache.contains(sql)) {
+                planHits.increment();
+            }
+        }
+    }
+
+    /**
+     * Run idempotent statement
+     * @param db OrientDB TwitterDB connection
+     * @param sql one of the statement texts of this class
+     * @param params values bound to the ? placeholders
+     * @return result set, must be closed by caller, which records the latency of the query
+     */
+    static OResultSet query(ODatabaseSession db, String sql, Object... params) {
+        count(db, sql);
+        long start = System.nanoTime();
+        return new TimedResultSet(db.query(sql, params), sql, start);
+    }
+
+    /**
+     * Run statement that modifies the database
+     * @param db OrientDB TwitterDB connection
+     * @param sql one of the statement texts of this class
+     * @param params values bound to the ? placeholders
+     */
+    static void command(ODatabaseSession db, String sql, Object... params) {
+        count(db, sql);
+        long start = System.nanoTime();
+        db.command(sql, params).close();
+        IngestMetrics.recordQuery(sql, start);
+    }
+
+    /**
+     * @param db OrientDB TwitterDB connection
+     * @param sql statement selecting "@rid AS rid"
+     * @param key value bound to the single ? placeholder
+     * @return record ID of the first result, null if no result
+     */
+    static ORID findRid(ODatabaseSession db, String sql, Object key) {
+        try (OResultSet rs = query(db, sql, key)) {
+            return rs.hasNext() ? rs.next().getProperty("rid") : null;
+        }
+    }
+
+    /**
+     * @return one line summary of distinct statement texts, executions and execution plan cache hits
+     */
+    static String stats() {
+        long total = 0;
+        for (LongAdder adder : executions.values()) {
+            total += adder.sum();
+        }
+        long lookups = planLookups.sum();
+        String plans = lookups == 0 ? "plan cache not visible (remote)"
+                : String.format("plan cache hits=%d/%d (%.1f%%)", planHits.sum(), lookups, 100.0 * planHits.sum() / lookups);
+        return String.format("Statements: distinct texts=%d executions=%d %s", executions.size(), total, plans);
+    }
+
+    /**
+     * Result set of query, records the time from the query to its close once
+     */
+    private static final class TimedResultSet implements OResultSet {
+        private final OResultSet results;
+        private final String sql;
+        private long start;
+
+        TimedResultSet(OResultSet results, String sql, long start) {
+            this.results = results;
+            this.sql = sql;
+            this.start = start;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return results.hasNext();
+        }
+
+        @Override
+        public OResult next() {
+            return results.next();
+        }
+
+        @Override
+        public void close() {
+            results.close();
+            if (start != -1) {
+                IngestMetrics.recordQuery(sql, start);
+                start = -1;
+            }
+        }
+
+        @Override
+        public Optional<OExecutionPlan> getExecutionPlan() {
+            return results.getExecutionPlan();
+        }
+
+        @Override
+        public Map<String, Long> getQueryStats() {
+            return results.getQueryStats();
+        }
+    }
+}
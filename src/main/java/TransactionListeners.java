@@ -0,0 +1,63 @@
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Per-thread import state that follows the batch transaction of its thread
+ * Main.runInTransaction and ScriptImport call every registered listener:
+ *      beforeCommit:   the work of the transaction is done, add its last statements (counter deltas, patches, ...)
+ *      committed:      the transaction committed, publish or forget what it kept for it
+ *      discarded:      the transaction was rolled back, forget it, a replay adds it again
+ * Listeners registered by Main:
+ *      IngestMetrics.DROPS, Main.CREATED_VERTICES, AggregateCounters.LISTENER, HashtagCooccurrence.LISTENER,
+ *      TweetPatches.LISTENER, and the EdgeRouter of a --partitioned import while it runs
+ */
+public class TransactionListeners {
+
+    /**
+     * Receives the statements a listener adds to the transaction, bound parameters as in Statements
+     */
+    interface StatementWriter {
+        void add(String sql, Object... args);
+    }
+
+    interface Listener {
+        /**
+         * Add the statements of this thread to the transaction about to commit, may run again if it is replayed
+         * @param writer statements of the transaction
+         */
+        default void beforeCommit(StatementWriter writer) {
+        }
+
+        void committed();
+
+        void discarded();
+    }
+
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    static void register(Listener listener) {
+        listeners.add(listener);
+    }
+
+    static void unregister(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    static void beforeCommit(StatementWriter writer) {
+        for (Listener listener : listeners) {
+            listener.beforeCommit(writer);
+        }
+    }
+
+    static void committed() {
+        for (Listener listener : listeners) {
+            listener.committed();
+        }
+    }
+
+    static void discarded() {
+        for (Listener listener : listeners) {
+            listener.discarded();
+        }
+    }
+}
@@ -0,0 +1,233 @@
+import com.orientechnologies.orient.core.db.ODatabaseSession;
+import com.orientechnologies.orient.core.db.OrientDB;
+import com.orientechnologies.orient.core.db.OrientDBConfig;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.sql.executor.OResult;
+import com.orientechnologies.orient.core.sql.executor.OResultSet;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Time partitioned Tweet clusters (--tweet-clusters day|hour): a new Tweet vertex is stored in the cluster of the
+ * UTC day or hour of its create_at, e.g. tweet_20180512 or tweet_2018051221, instead of the default clusters of Tweet
+ * Clusters are added to class Tweet before the batch that needs them (prepare), outside of its transaction, as
+ * schema changes cannot be part of one. The tweets of one period are then stored together in arrival order, and
+ * a time window query reads the few clusters of the window one after the other (tweetsPerMinute) instead of
+ * following Create_at_index to records spread over the whole class.
+ * NOTE: the cluster of a Tweet is chosen once, tweets imported without the option stay in the default clusters and
+ *       are not seen by the helpers here. A tweet with a malformed created_at gets the import time as before, in the
+ *       cluster of that time only if a batch already prepared it.
+ *       The queries still go through class Tweet for everything else (tweet_id lookups, edges).
+ *
+ * Usage: TweetClusters --from <instant> --to <instant> [--url remote:localhost] [--db twitterdb] [--user] [--password]
+ * prints tweetsPerMinute of the window, instants in ISO-8601 UTC, ex. 2018-05-12T19:00:00Z.
+ */
+public class TweetClusters {
+    static final String PREFIX = "tweet_";
+
+    enum Granularity {
+        DAY("yyyyMMdd", ChronoUnit.DAYS),
+        HOUR("yyyyMMddHH", ChronoUnit.HOURS);
+
+        private static final DateTimeFormatter HOUR_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+        final String pattern;
+        final DateTimeFormatter format;
+        final ChronoUnit unit;
+
+        Granularity(String pattern, ChronoUnit unit) {
+            this.pattern = pattern;
+            this.format = DateTimeFormatter.ofPattern(pattern).withZone(ZoneOffset.UTC);
+            this.unit = unit;
+        }
+
+        /**
+         * @param cluster name of a cluster created by prepare
+         * @return granularity of the cluster, null if it is not a time cluster
+         */
+        static Granularity of(String cluster) {
+            String suffix = cluster.substring(Math.min(cluster.length(), PREFIX.length()));
+            if (!cluster.startsWith(PREFIX) || !suffix.chars().allMatch(Character::isDigit)) {
+                return null;
+            }
+            for (Granularity granularity : values()) {
+                if (suffix.length() == granularity.pattern.length()) {
+                    return granularity;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * @param cluster name of a time cluster of this granularity
+         * @return first instant of the period of the cluster
+         */
+        Instant start(String cluster) {
+            String suffix = cluster.substring(PREFIX.length());
+            return LocalDateTime.parse(this == DAY ? suffix + "00" : suffix, HOUR_FORMAT).toInstant(ZoneOffset.UTC);
+        }
+    }
+
+    private static Granularity granularity = null;
+    // Time clusters of class Tweet known to exist
+    private static final Set<String> known = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param value granularity of the clusters of new tweets, null to keep the default clusters
+     */
+    static void setGranularity(Granularity value) {
+        granularity = value;
+    }
+
+    static boolean enabled() {
+        return granularity != null;
+    }
+
+    private static String name(Date time) {
+        return PREFIX + granularity.format.format(time.toInstant());
+    }
+
+    /**
+     * Add the clusters the tweets and retweeted originals of a batch go to, must run outside of a transaction
+     * @param db OrientDB TwitterDB connection
+     * @param batch decoded tweets of the next batch
+     */
+    static void prepare(ODatabaseSession db, List<TweetRecord> batch) {
+        for (TweetRecord tweet : batch) {
+            if (tweet.limit) {
+                continue;
+            }
+            if (tweet.createdAt != TweetCodec.INVALID_TIME) {
+                ensure(db, name(new Date(tweet.createdAt)));
+            }
+            if (tweet.hasRetweet && tweet.retweet.createdAt != TweetCodec.INVALID_TIME) {
+                ensure(db, name(new Date(tweet.retweet.createdAt)));
+            }
+        }
+    }
+
+    private static void ensure(ODatabaseSession db, String cluster) {
+        if (known.contains(cluster)) {
+            return;
+        }
+        synchronized (TweetClusters.class) {
+            OClass tweet = db.getMetadata().getSchema().getClass("Tweet");
+            int id = db.getClusterIdByName(cluster);
+            boolean added = false;
+            for (int clusterId : tweet.getClusterIds()) {
+                added |= clusterId == id;
+            }
+            if (id == -1 || !added) {
+                // Creates the cluster if missing
+                db.command("ALTER CLASS Tweet ADDCLUSTER " + cluster).close();
+                db.getMetadata().reload();
+            }
+            known.add(cluster);
+        }
+    }
+
+    /**
+     * @param createAt create_at of a new Tweet vertex
+     * @return cluster to save it to, null for the default clusters (option off, or the cluster was not prepared)
+     */
+    static String clusterOf(Date createAt) {
+        if (granularity == null) {
+            return null;
+        }
+        String cluster = name(createAt);
+        return known.contains(cluster) ? cluster : null;
+    }
+
+    /**
+     * @param db OrientDB TwitterDB connection
+     * @param from start of the window, inclusive
+     * @param to end of the window, exclusive
+     * @return time clusters of class Tweet holding tweets of the window, oldest first
+     */
+    static List<String> clusters(ODatabaseSession db, Date from, Date to) {
+        List<String> clusters = new ArrayList<>();
+        OClass tweet = db.getMetadata().getSchema().getClass("Tweet");
+        for (int clusterId : tweet.getClusterIds()) {
+            String cluster = db.getClusterNameById(clusterId);
+            Granularity clusterGranularity = Granularity.of(cluster);
+            if (clusterGranularity == null) {
+                continue;
+            }
+            Instant start = clusterGranularity.start(cluster);
+            Instant end = start.plus(1, clusterGranularity.unit);
+            if (start.isBefore(to.toInstant()) && end.isAfter(from.toInstant())) {
+                clusters.add(cluster);
+            }
+        }
+        clusters.sort(Comparator.comparing((String cluster) -> Granularity.of(cluster).start(cluster)).thenComparing(cluster -> cluster));
+        return clusters;
+    }
+
+    /**
+     * Number of tweets per minute of a time window, read from the time clusters of the window only
+     * Minutes do not cross clusters, so the results of the clusters read in time order are in time order too.
+     * @param db OrientDB TwitterDB connection
+     * @param from start of the window, inclusive
+     * @param to end of the window, exclusive
+     * @return "yyyy-MM-dd HH:mm=tweets" per minute with tweets (UTC), oldest first
+     */
+    static List<String> tweetsPerMinute(ODatabaseSession db, Date from, Date to) {
+        List<String> counts = new ArrayList<>();
+        for (String cluster : clusters(db, from, to)) {
+            // A cluster name cannot be a bound parameter, it comes from the schema, not from the caller
+            try (OResultSet rs = Statements.query(db, String.format(Statements.TWEETS_PER_MINUTE, cluster), from, to)) {
+                while (rs.hasNext()) {
+                    OResult result = rs.next();
+                    counts.add(result.getProperty("minute") + "=" + result.getProperty("tweets"));
+                }
+            }
+        }
+        return counts;
+    }
+
+    /**
+     * @param args command line arguments
+     * @param name option name, ex. "--from"
+     * @param defaultValue value if the option is not given
+     * @return value following the option name
+     */
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    public static void main(String[] args) {
+        String from = option(args, "--from", null);
+        String to = option(args, "--to", null);
+        if (from == null || to == null) {
+            System.out.println("Usage: TweetClusters --from <2018-05-12T19:00:00Z> --to <2018-05-12T23:00:00Z> "
+                    + "[--url remote:localhost] [--db twitterdb] [--user root] [--password ...]");
+            return;
+        }
+        Date start = Date.from(Instant.parse(from));
+        Date end = Date.from(Instant.parse(to));
+        try (OrientDB orient = new OrientDB(option(args, "--url", "remote:localhost"), OrientDBConfig.defaultConfig());
+             ODatabaseSession db = orient.open(option(args, "--db", "twitterdb"), option(args, "--user", "root"),
+                     option(args, "--password", "sc16041102"))) {
+            List<String> clusters = clusters(db, start, end);
+            System.out.println("Tweets per minute from " + from + " to " + to + " in " + clusters + ":");
+            for (String count : tweetsPerMinute(db, start, end)) {
+                System.out.println("  " + count);
+            }
+        }
+    }
+}
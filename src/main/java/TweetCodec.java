@@ -0,0 +1,260 @@
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.Arrays;
+
+/**
+ * Field codec used by TweetDecoder for the values that repeat on every record
+ *      created_at:     "Weekday Month DD HH:mm:ss +xxxx YEAR" parsed straight to epoch millis
+ *      hashtags:       accents stripped (NFD, then \p{M} removed), memoized per raw spelling
+ *      intern:         one shared String per distinct value of high repetition fields (place.country, user.location)
+ *
+ * Memo tables are keyed by the raw bytes of the value as it appears in the line, JSON escapes included, so a repeated
+ * value is found without creating a String for it. Twitter writes every non-ASCII character as \\uXXXX: an escaped
+ * spelling is unescaped (and normalized) once per distinct spelling too, through memoizedHashtag / memoizeHashtag.
+ * They are direct mapped: a colliding value replaces the previous one, so memory stays bounded.
+ * NOTE: not thread safe, every TweetDecoder owns its codec
+ */
+public class TweetCodec {
+    /**
+     * Returned by parseCreatedAt when the text does not follow the Twitter format
+     */
+    public static final long INVALID_TIME = Long.MIN_VALUE;
+
+    private static final byte[][] MONTHS = new byte[12][];
+
+    static {
+        String[] names = {"Jan", "Feb", "Mar", "Apr", "May", "Jun", "Jul", "Aug", "Sep", "Oct", "Nov", "Dec"};
+        for (int i = 0; i < names.length; i++) {
+            MONTHS[i] = names[i].getBytes(StandardCharsets.US_ASCII);
+        }
+    }
+
+    private final SliceCache hashtags;
+    private final SliceCache strings;
+
+    public TweetCodec() {
+        this(1 << 14, 1 << 14);
+    }
+
+    /**
+     * @param hashtagSlots number of memoized hashtag spellings, rounded up to a power of two
+     * @param stringSlots number of interned strings, rounded up to a power of two
+     */
+    public TweetCodec(int hashtagSlots, int stringSlots) {
+        this.hashtags = new SliceCache(hashtagSlots);
+        this.strings = new SliceCache(stringSlots);
+    }
+
+    /**
+     * Parse Twitter created_at, ex. "Sat May 12 19:27:52 +0000 2018"
+     * @param b buffer holding the UTF-8 bytes
+     * @param off first byte of the value, without quotes
+     * @param len number of bytes of the value
+     * @return epoch millis of the instant, INVALID_TIME if malformed
+     */
+    public static long parseCreatedAt(byte[] b, int off, int len) {
+        // Www Mmm DD HH:mm:ss +hhmm YYYY
+        // 0   4   8  11 14 17 20    26
+        if (len != 30 || b[off + 3] != ' ' || b[off + 7] != ' ' || b[off + 10] != ' ' || b[off + 13] != ':'
+                || b[off + 16] != ':' || b[off + 19] != ' ' || b[off + 25] != ' ') {
+            return INVALID_TIME;
+        }
+        int month = -1;
+        for (int i = 0; i < MONTHS.length; i++) {
+            if (b[off + 4] == MONTHS[i][0] && b[off + 5] == MONTHS[i][1] && b[off + 6] == MONTHS[i][2]) {
+                month = i + 1;
+                break;
+            }
+        }
+        int day = digits(b, off + 8, 2);
+        int hour = digits(b, off + 11, 2);
+        int minute = digits(b, off + 14, 2);
+        int second = digits(b, off + 17, 2);
+        int offsetHours = digits(b, off + 21, 2);
+        int offsetMinutes = digits(b, off + 23, 2);
+        int year = digits(b, off + 26, 4);
+        byte sign = b[off + 20];
+        if (month < 0 || day < 1 || day > 31 || hour < 0 || hour > 23 || minute < 0 || minute > 59
+                || second < 0 || second > 60 || offsetHours < 0 || offsetMinutes < 0 || year < 0
+                || (sign != '+' && sign != '-')) {
+            return INVALID_TIME;
+        }
+        long offsetSeconds = (offsetHours * 60L + offsetMinutes) * 60L * (sign == '-' ? -1 : 1);
+        long seconds = ((daysFromCivil(year, month, day) * 24 + hour) * 60 + minute) * 60 + second;
+        return (seconds - offsetSeconds) * 1000L;
+    }
+
+    /**
+     * @param text created_at string
+     * @return epoch millis of the instant, INVALID_TIME if malformed
+     */
+    public static long parseCreatedAt(String text) {
+        byte[] b = text.getBytes(StandardCharsets.US_ASCII);
+        return parseCreatedAt(b, 0, b.length);
+    }
+
+    /**
+     * @return value of n ASCII digits, -1 if one of them is not a digit
+     */
+    private static int digits(byte[] b, int off, int n) {
+        int value = 0;
+        for (int i = off; i < off + n; i++) {
+            int d = b[i] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            value = value * 10 + d;
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 of a proleptic Gregorian date (H. Hinnant, "chrono-Compatible Low-Level Date Algorithms")
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        int y = month <= 2 ? year - 1 : year;
+        int era = (y >= 0 ? y : y - 399) / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097L + dayOfEra - 719468;
+    }
+
+    /**
+     * Normalized hashtag for given raw UTF-8 bytes, computed once per distinct spelling
+     * @param b buffer holding the UTF-8 bytes of the hashtag text, without escapes
+     * @param off first byte
+     * @param len number of bytes
+     * @return hashtag with accents removed
+     */
+    public String hashtag(byte[] b, int off, int len) {
+        String value = memoizedHashtag(b, off, len);
+        return value != null ? value : memoizeHashtag(b, off, len, new String(b, off, len, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param b buffer holding the raw bytes of the hashtag text, escapes included
+     * @param off first byte
+     * @param len number of bytes
+     * @return normalized hashtag memoized for these bytes, null if not memoized
+     */
+    public String memoizedHashtag(byte[] b, int off, int len) {
+        return hashtags.get(b, off, len, SliceCache.hash(b, off, len));
+    }
+
+    /**
+     * Normalize a hashtag and memoize it for its raw bytes
+     * @param b buffer holding the raw bytes of the hashtag text, escapes included
+     * @param off first byte
+     * @param len number of bytes
+     * @param text hashtag text these bytes decode to
+     * @return hashtag with accents removed
+     */
+    public String memoizeHashtag(byte[] b, int off, int len, String text) {
+        String value = normalizeHashtag(text);
+        hashtags.put(b, off, len, SliceCache.hash(b, off, len), value);
+        return value;
+    }
+
+    /**
+     * Shared String instance for given raw UTF-8 bytes
+     * @param b buffer holding the UTF-8 bytes of the value, without escapes
+     * @param off first byte
+     * @param len number of bytes
+     * @return decoded value, the same instance for repeated values
+     */
+    public String intern(byte[] b, int off, int len) {
+        String value = interned(b, off, len);
+        return value != null ? value : intern(b, off, len, new String(b, off, len, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param b buffer holding the raw bytes of the value, escapes included
+     * @param off first byte
+     * @param len number of bytes
+     * @return shared String for these bytes, null if not interned
+     */
+    public String interned(byte[] b, int off, int len) {
+        return strings.get(b, off, len, SliceCache.hash(b, off, len));
+    }
+
+    /**
+     * Intern a value for its raw bytes
+     * @param b buffer holding the raw bytes of the value, escapes included
+     * @param off first byte
+     * @param len number of bytes
+     * @param value string these bytes decode to
+     * @return value, now shared
+     */
+    public String intern(byte[] b, int off, int len, String value) {
+        strings.put(b, off, len, SliceCache.hash(b, off, len), value);
+        return value;
+    }
+
+    /**
+     * Same result as Normalizer.normalize(hashtag, NFD).replaceAll("\\p{M}", "")
+     * ASCII hashtags, the common case, are returned as is
+     * @param hashtag raw hashtag text
+     * @return hashtag with accents removed
+     */
+    public static String normalizeHashtag(String hashtag) {
+        boolean ascii = true;
+        for (int i = 0; i < hashtag.length() && ascii; i++) {
+            ascii = hashtag.charAt(i) < 0x80;
+        }
+        if (ascii) {
+            return hashtag;
+        }
+        String decomposed = Normalizer.normalize(hashtag, Normalizer.Form.NFD);
+        StringBuilder sb = new StringBuilder(decomposed.length());
+        for (int i = 0; i < decomposed.length(); ) {
+            int codePoint = decomposed.codePointAt(i);
+            int type = Character.getType(codePoint);
+            if (type != Character.NON_SPACING_MARK && type != Character.ENCLOSING_MARK
+                    && type != Character.COMBINING_SPACING_MARK) {
+                sb.appendCodePoint(codePoint);
+            }
+            i += Character.charCount(codePoint);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Direct mapped table from byte slice to String
+     */
+    private static final class SliceCache {
+        private final byte[][] keys;
+        private final String[] values;
+        private final int mask;
+
+        SliceCache(int slots) {
+            int size = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+            this.keys = new byte[size][];
+            this.values = new String[size];
+            this.mask = size - 1;
+        }
+
+        static int hash(byte[] b, int off, int len) {
+            int h = 0x811C9DC5;
+            for (int i = off; i < off + len; i++) {
+                h = (h ^ b[i]) * 0x01000193;
+            }
+            return h ^ (h >>> 16);
+        }
+
+        String get(byte[] b, int off, int len, int hash) {
+            int slot = hash & mask;
+            byte[] key = keys[slot];
+            if (key != null && key.length == len && Arrays.equals(key, 0, len, b, off, off + len)) {
+                return values[slot];
+            }
+            return null;
+        }
+
+        void put(byte[] b, int off, int len, int hash, String value) {
+            int slot = hash & mask;
+            keys[slot] = Arrays.copyOfRange(b, off, off + len);
+            values[slot] = value;
+        }
+    }
+}
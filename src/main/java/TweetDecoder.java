@@ -0,0 +1,534 @@
+import org.json.simple.parser.ParseException;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming decoder of one tweet line, reads UTF-8 bytes and fills a TweetRecord
+ * Only the fields listed in TweetRecord are turned into Java values, every other value is skipped over
+ * without building strings, maps or boxed numbers. Keys are compared on raw bytes.
+ * Timestamps, hashtags and repeated strings go through a TweetCodec, see there.
+ * NOTE: a decoder keeps scratch state, use one decoder per thread
+ */
+public class TweetDecoder {
+    private static final byte[] LIMIT = ascii("limit");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] CREATED_AT = ascii("created_at");
+    private static final byte[] TEXT = ascii("text");
+    private static final byte[] IN_REPLY_TO_STATUS_ID = ascii("in_reply_to_status_id");
+    private static final byte[] QUOTED_STATUS_ID = ascii("quoted_status_id");
+    private static final byte[] USER = ascii("user");
+    private static final byte[] SCREEN_NAME = ascii("screen_name");
+    private static final byte[] LOCATION = ascii("location");
+    private static final byte[] VERIFIED = ascii("verified");
+    private static final byte[] PLACE = ascii("place");
+    private static final byte[] COUNTRY = ascii("country");
+    private static final byte[] ENTITIES = ascii("entities");
+    private static final byte[] HASHTAGS = ascii("hashtags");
+    private static final byte[] RETWEETED_STATUS = ascii("retweeted_status");
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+    // Key of the current object member, as offsets into buf
+    private int keyStart;
+    private int keyEnd;
+    // String value found by scanString, as offsets into buf
+    private int sliceStart;
+    private int sliceEnd;
+    private boolean sliceEscaped;
+    private final StringBuilder escaped = new StringBuilder();
+    private final TweetCodec codec;
+
+    public TweetDecoder() {
+        this(new TweetCodec());
+    }
+
+    /**
+     * @param codec field codec owned by this decoder
+     */
+    public TweetDecoder(TweetCodec codec) {
+        this.codec = codec;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Decode one line
+     * @param line JSON text of one tweet
+     * @param record record to fill, previous content is cleared
+     */
+    public void decode(String line, TweetRecord record) throws ParseException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        decode(bytes, 0, bytes.length, record);
+    }
+
+    /**
+     * Decode one line
+     * @param data buffer holding the UTF-8 bytes of the line
+     * @param offset first byte of the line
+     * @param length number of bytes of the line, without line terminator
+     * @param record record to fill, previous content is cleared
+     */
+    public void decode(byte[] data, int offset, int length, TweetRecord record) throws ParseException {
+        buf = data;
+        pos = offset;
+        end = offset + length;
+        readTweet(record);
+        buf = null;
+    }
+
+    /**
+     * Tweet object, top level or "retweeted_status"
+     */
+    private void readTweet(TweetRecord record) throws ParseException {
+        record.reset();
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        do {
+            readKey();
+            if (keyIs(ID)) {
+                record.id = readLong();
+            } else if (keyIs(CREATED_AT)) {
+                record.createdAt = readCreatedAt();
+            } else if (keyIs(TEXT)) {
+                record.text = readString();
+            } else if (keyIs(IN_REPLY_TO_STATUS_ID)) {
+                record.inReplyToStatusId = readLong();
+            } else if (keyIs(QUOTED_STATUS_ID)) {
+                record.quotedStatusId = readLong();
+            } else if (keyIs(USER)) {
+                readUser(record);
+            } else if (keyIs(PLACE)) {
+                readPlace(record);
+            } else if (keyIs(ENTITIES)) {
+                readEntities(record);
+            } else if (keyIs(RETWEETED_STATUS)) {
+                if (readNull()) {
+                    continue;
+                }
+                record.hasRetweet = true;
+                readTweet(record.retweetRecord());
+            } else if (keyIs(LIMIT)) {
+                record.limit = true;
+                skipValue();
+            } else {
+                skipValue();
+            }
+        } while (nextMember());
+    }
+
+    private void readUser(TweetRecord record) throws ParseException {
+        if (readNull()) {
+            return;
+        }
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        do {
+            readKey();
+            if (keyIs(ID)) {
+                record.userId = readLong();
+            } else if (keyIs(SCREEN_NAME)) {
+                record.userScreenName = readString();
+            } else if (keyIs(LOCATION)) {
+                record.userLocation = readInternedString();
+            } else if (keyIs(VERIFIED)) {
+                record.userVerified = readBoolean();
+            } else {
+                skipValue();
+            }
+        } while (nextMember());
+    }
+
+    private void readPlace(TweetRecord record) throws ParseException {
+        if (readNull()) {
+            return;
+        }
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        do {
+            readKey();
+            if (keyIs(COUNTRY)) {
+                record.placeCountry = readInternedString();
+            } else {
+                skipValue();
+            }
+        } while (nextMember());
+    }
+
+    private void readEntities(TweetRecord record) throws ParseException {
+        if (readNull()) {
+            return;
+        }
+        expect('{');
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        do {
+            readKey();
+            if (keyIs(HASHTAGS) && !readNull()) {
+                readHashtags(record);
+            } else {
+                skipValue();
+            }
+        } while (nextMember());
+    }
+
+    /**
+     * "hashtags": [{"text": "...", "indices": [..]}, ...]
+     */
+    private void readHashtags(TweetRecord record) throws ParseException {
+        expect('[');
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        do {
+            expect('{');
+            if (peek() == '}') {
+                pos++;
+                continue;
+            }
+            do {
+                readKey();
+                if (keyIs(TEXT)) {
+                    String hashtag = readHashtag();
+                    if (hashtag != null) {
+                        record.hashtags.add(hashtag);
+                    }
+                } else {
+                    skipValue();
+                }
+            } while (nextMember());
+        } while (nextElement());
+    }
+
+    /**
+     * Read member key and the following ':', key is kept as offsets into buf
+     */
+    private void readKey() throws ParseException {
+        expect('"');
+        keyStart = pos;
+        while (pos < end && buf[pos] != '"') {
+            if (buf[pos] == '\\') {
+                pos++;
+            }
+            pos++;
+        }
+        keyEnd = pos;
+        pos++;
+        expect(':');
+    }
+
+    private boolean keyIs(byte[] name) {
+        if (keyEnd - keyStart != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buf[keyStart + i] != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return true if another member follows in the current object
+     */
+    private boolean nextMember() throws ParseException {
+        byte b = peek();
+        pos++;
+        if (b == ',') {
+            return true;
+        } else if (b == '}') {
+            return false;
+        }
+        throw unexpected(b);
+    }
+
+    /**
+     * @return true if another element follows in the current array
+     */
+    private boolean nextElement() throws ParseException {
+        byte b = peek();
+        pos++;
+        if (b == ',') {
+            return true;
+        } else if (b == ']') {
+            return false;
+        }
+        throw unexpected(b);
+    }
+
+    /**
+     * Consume a null literal if there is one
+     * @return true if the value was null
+     */
+    private boolean readNull() throws ParseException {
+        if (peek() == 'n') {
+            pos += 4;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return integer value, -1 for null
+     */
+    private long readLong() throws ParseException {
+        if (readNull()) {
+            return -1;
+        }
+        boolean negative = false;
+        if (buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        int start = pos;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos++] - '0');
+        }
+        if (pos == start) {
+            throw unexpected(pos < end ? buf[pos] : -1);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * @return boolean value, false for null
+     */
+    private boolean readBoolean() throws ParseException {
+        byte b = peek();
+        if (b == 't') {
+            pos += 4;
+            return true;
+        } else if (b == 'f') {
+            pos += 5;
+            return false;
+        } else if (readNull()) {
+            return false;
+        }
+        throw unexpected(b);
+    }
+
+    /**
+     * Scan a string value without decoding it
+     * @return false for null, o.w. the content is buf[sliceStart, sliceEnd), sliceEscaped if it holds escape sequences
+     */
+    private boolean scanString() throws ParseException {
+        if (readNull()) {
+            return false;
+        }
+        expect('"');
+        sliceStart = pos;
+        sliceEscaped = false;
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b == '"') {
+                sliceEnd = pos++;
+                return true;
+            } else if (b == '\\') {
+                sliceEscaped = true;
+                pos++;
+            }
+            pos++;
+        }
+        throw unexpected(-1);
+    }
+
+    /**
+     * @return string value, null for null
+     */
+    private String readString() throws ParseException {
+        if (!scanString()) {
+            return null;
+        }
+        if (sliceEscaped) {
+            return unescape(sliceStart, sliceEnd);
+        }
+        return new String(buf, sliceStart, sliceEnd - sliceStart, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return string value shared with earlier records holding the same value, null for null
+     */
+    private String readInternedString() throws ParseException {
+        if (!scanString()) {
+            return null;
+        }
+        if (!sliceEscaped) {
+            return codec.intern(buf, sliceStart, sliceEnd - sliceStart);
+        }
+        String value = codec.interned(buf, sliceStart, sliceEnd - sliceStart);
+        return value != null ? value : codec.intern(buf, sliceStart, sliceEnd - sliceStart, unescape(sliceStart, sliceEnd));
+    }
+
+    /**
+     * @return normalized hashtag, null for null
+     */
+    private String readHashtag() throws ParseException {
+        if (!scanString()) {
+            return null;
+        }
+        if (!sliceEscaped) {
+            return codec.hashtag(buf, sliceStart, sliceEnd - sliceStart);
+        }
+        // Keyed by the escaped bytes, an escaped spelling is decoded and normalized once
+        String value = codec.memoizedHashtag(buf, sliceStart, sliceEnd - sliceStart);
+        return value != null ? value : codec.memoizeHashtag(buf, sliceStart, sliceEnd - sliceStart, unescape(sliceStart, sliceEnd));
+    }
+
+    /**
+     * @return created_at as epoch millis, TweetCodec.INVALID_TIME for null or malformed values
+     */
+    private long readCreatedAt() throws ParseException {
+        if (!scanString()) {
+            return TweetCodec.INVALID_TIME;
+        }
+        if (sliceEscaped) {
+            return TweetCodec.parseCreatedAt(unescape(sliceStart, sliceEnd));
+        }
+        return TweetCodec.parseCreatedAt(buf, sliceStart, sliceEnd - sliceStart);
+    }
+
+    /**
+     * Decode string content holding escape sequences
+     * @param start first byte of the content
+     * @param stop index of the closing quote
+     */
+    private String unescape(int start, int stop) throws ParseException {
+        escaped.setLength(0);
+        int runStart = start;
+        int i = start;
+        while (i < stop) {
+            if (buf[i] != '\\') {
+                i++;
+                continue;
+            }
+            escaped.append(new String(buf, runStart, i - runStart, StandardCharsets.UTF_8));
+            byte e = buf[i + 1];
+            i += 2;
+            switch (e) {
+                case 'n': escaped.append('\n');
+                    break;
+                case 't': escaped.append('\t');
+                    break;
+                case 'r': escaped.append('\r');
+                    break;
+                case 'b': escaped.append('\b');
+                    break;
+                case 'f': escaped.append('\f');
+                    break;
+                case 'u':
+                    if (i + 4 > stop) {
+                        throw unexpected(-1);
+                    }
+                    int c = 0;
+                    for (int k = i; k < i + 4; k++) {
+                        int d = Character.digit(buf[k], 16);
+                        if (d < 0) {
+                            throw unexpected(buf[k]);
+                        }
+                        c = c * 16 + d;
+                    }
+                    escaped.append((char) c);
+                    i += 4;
+                    break;
+                default: escaped.append((char) e);
+                    break;
+            }
+            runStart = i;
+        }
+        escaped.append(new String(buf, runStart, stop - runStart, StandardCharsets.UTF_8));
+        return escaped.toString();
+    }
+
+    /**
+     * Skip over any value without decoding it
+     */
+    private void skipValue() throws ParseException {
+        byte b = peek();
+        if (b == '"') {
+            skipString();
+        } else if (b == '{' || b == '[') {
+            int depth = 0;
+            while (pos < end) {
+                b = buf[pos];
+                if (b == '"') {
+                    skipString();
+                    continue;
+                }
+                pos++;
+                if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (--depth == 0) {
+                        return;
+                    }
+                }
+            }
+            throw unexpected(-1);
+        } else {
+            // number, true, false, null
+            while (pos < end && buf[pos] != ',' && buf[pos] != '}' && buf[pos] != ']'
+                    && buf[pos] != ' ' && buf[pos] != '\t' && buf[pos] != '\r') {
+                pos++;
+            }
+        }
+    }
+
+    private void skipString() throws ParseException {
+        pos++;
+        while (pos < end) {
+            byte b = buf[pos++];
+            if (b == '\\') {
+                pos++;
+            } else if (b == '"') {
+                return;
+            }
+        }
+        throw unexpected(-1);
+    }
+
+    /**
+     * Skip whitespace
+     * @return next byte, not consumed
+     */
+    private byte peek() throws ParseException {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return b;
+            }
+            pos++;
+        }
+        throw unexpected(-1);
+    }
+
+    private void expect(char c) throws ParseException {
+        byte b = peek();
+        if (b != c) {
+            throw unexpected(b);
+        }
+        pos++;
+    }
+
+    private ParseException unexpected(int b) {
+        if (b < 0) {
+            return new ParseException(pos, ParseException.ERROR_UNEXPECTED_EXCEPTION, "unexpected end of line");
+        }
+        return new ParseException(pos, ParseException.ERROR_UNEXPECTED_CHAR, (char) b);
+    }
+}
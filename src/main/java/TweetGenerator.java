@@ -0,0 +1,319 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Seeded generator of synthetic Twitter stream files in the layout of the Kaggle Eurovision files, one tweet object
+ * per line followed by an empty line, for load tests of importDataFromJson at any size
+ * Each tweet is generated from its own index and the seed only, so the same options always write the same file and a
+ * retweeted original embedded in "retweeted_status" is identical to the line of that original.
+ * Mix of the stream:
+ *      users:          user of each tweet Zipf distributed over --users (exponent --user-skew), few users write most tweets
+ *      hashtags:       0 to --max-hashtags per tweet, Zipf distributed over a vocabulary of --hashtags (exponent --hashtag-skew),
+ *                      every 20th hashtag is also written with an accent, which the importer normalizes to the same Hashtag
+ *      retweets:       --retweet-rate of the tweets, the original is Zipf distributed over the earlier tweets (old tweets are popular)
+ *      replies/quotes: --reply-rate / --quote-rate of the tweets, the target is one of the --window tweets before it,
+ *                      or with --forward-rate one of the --window tweets after it (reference out of order)
+ *      limit notices:  one {"limit": ...} line every --limit-every lines, 0 for none
+ *
+ * Usage: TweetGenerator --out <file.json | file.json.gz> [--tweets 1000000] [--users 100000] [--hashtags 10000] [--seed 1] ...
+ */
+public class TweetGenerator {
+    private static final long FIRST_ID = 995000000000000000L;
+    private static final long FIRST_USER_ID = 100000L;
+    // Sat May 12 2018 00:00:00 UTC, the final of Eurovision 2018
+    private static final long START_MILLIS = 1526083200000L;
+    // Mixed into the index for the draw of the retweeted original, independent of the draws of the tweet itself
+    private static final long ORIGINAL_SALT = 0x5DEECE66DL;
+    private static final DateTimeFormatter CREATED_AT = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss +0000 yyyy", Locale.US).withZone(ZoneOffset.UTC);
+    private static final String[] COUNTRIES = {"Portugal", "Israel", "Cyprus", "Sweden", "United Kingdom", "Spain", "Germany"};
+    private static final String[] LOCATIONS = {"Lisbon", "Tel Aviv", "London", "Madrid", "Stockholm", "Berlin", null, null, null};
+
+    private final long seed;
+    private final long tweets;
+    private final int maxHashtags;
+    private final double retweetRate;
+    private final double replyRate;
+    private final double quoteRate;
+    private final double forwardRate;
+    private final int window;
+    private final int tweetsPerSecond;
+    private final Zipf userZipf;
+    private final Zipf hashtagZipf;
+    private final Zipf originalZipf;
+
+    // created_at of the last formatted second, most tweets share it
+    private long createdAtSecond = -1;
+    private String createdAt;
+
+    TweetGenerator(long seed, long tweets, int users, int hashtags, double userSkew, double hashtagSkew, int maxHashtags,
+                   double retweetRate, double replyRate, double quoteRate, double forwardRate, int window, int tweetsPerSecond) {
+        if (retweetRate + replyRate + quoteRate > 1) {
+            throw new IllegalArgumentException("--retweet-rate + --reply-rate + --quote-rate must be at most 1");
+        }
+        this.seed = seed;
+        this.tweets = tweets;
+        this.maxHashtags = maxHashtags;
+        this.retweetRate = retweetRate;
+        this.replyRate = replyRate;
+        this.quoteRate = quoteRate;
+        this.forwardRate = forwardRate;
+        this.window = window;
+        this.tweetsPerSecond = tweetsPerSecond;
+        this.userZipf = new Zipf(users, userSkew);
+        this.hashtagZipf = new Zipf(hashtags, hashtagSkew);
+        this.originalZipf = new Zipf((int) Math.min(tweets, Integer.MAX_VALUE), 1.0);
+    }
+
+    /**
+     * @return random numbers of the tweet with given index, independent of every other tweet
+     */
+    private SplittableRandom random(long index) {
+        return new SplittableRandom(seed * 0x9E3779B97F4A7C15L + index);
+    }
+
+    private boolean isRetweet(long index) {
+        return index > 0 && random(index).nextDouble() < retweetRate;
+    }
+
+    /**
+     * @return index of the original tweet retweeted by the tweet with given index, never a retweet itself
+     */
+    private long originalOf(long index) {
+        SplittableRandom random = random(index ^ ORIGINAL_SALT);
+        long original = (originalZipf.sample(random) - 1) % index;
+        return isRetweet(original) ? originalOf(original) : original;
+    }
+
+    /**
+     * Append the tweet object of given index, without the enclosing braces
+     */
+    private void appendTweet(StringBuilder sb, long index) {
+        SplittableRandom random = random(index);
+        double kind = random.nextDouble();
+        long replyTo = -1;
+        long quoteOf = -1;
+        if (index > 0 && kind >= retweetRate && kind < retweetRate + replyRate + quoteRate) {
+            long target = referenceOf(random, index);
+            if (kind < retweetRate + replyRate) {
+                replyTo = target;
+            } else {
+                quoteOf = target;
+            }
+        }
+        long user = FIRST_USER_ID + userZipf.sample(random) - 1;
+        long millis = START_MILLIS + index * 1000 / tweetsPerSecond;
+        if (millis / 1000 != createdAtSecond) {
+            createdAtSecond = millis / 1000;
+            createdAt = CREATED_AT.format(Instant.ofEpochMilli(millis));
+        }
+        long id = FIRST_ID + index;
+        sb.append("\"created_at\": \"").append(createdAt).append('"');
+        sb.append(", \"id\": ").append(id).append(", \"id_str\": \"").append(id).append('"');
+        sb.append(", \"text\": \"Tweet ").append(index).append(" about \\\"Eurovision\\\" \\u00e9\\ud83c\\udfb6 https:\\/\\/t.co\\/x").append(index).append('"');
+        sb.append(", \"in_reply_to_status_id\": ").append(replyTo == -1 ? "null" : Long.toString(FIRST_ID + replyTo));
+        String location = LOCATIONS[random.nextInt(LOCATIONS.length)];
+        sb.append(", \"user\": {\"id\": ").append(user).append(", \"screen_name\": \"fan").append(user).append('"')
+                .append(", \"location\": ").append(location == null ? "null" : '"' + location + '"')
+                .append(", \"verified\": ").append(user % 100 == 0).append(", \"followers_count\": ").append(user % 10000).append('}');
+        if (random.nextInt(10) == 0) {
+            sb.append(", \"place\": {\"country\": \"").append(COUNTRIES[random.nextInt(COUNTRIES.length)]).append("\"}");
+        } else {
+            sb.append(", \"place\": null");
+        }
+        sb.append(", \"entities\": {\"hashtags\": [");
+        int count = maxHashtags > 0 ? random.nextInt(maxHashtags + 1) : 0;
+        for (int h = 0; h < count; h++) {
+            int rank = hashtagZipf.sample(random);
+            sb.append(h > 0 ? ", " : "").append("{\"text\": \"");
+            if (rank % 20 == 0 && random.nextBoolean()) {
+                sb.append("Eurovisi\\u00f3n").append(rank);
+            } else if (rank % 20 == 0) {
+                sb.append("Eurovision").append(rank);
+            } else {
+                sb.append("tag").append(Integer.toString(rank, 36));
+            }
+            sb.append("\", \"indices\": [0, 1]}");
+        }
+        sb.append("], \"urls\": []}, \"lang\": \"en\"");
+        if (quoteOf != -1) {
+            sb.append(", \"quoted_status_id\": ").append(FIRST_ID + quoteOf);
+        }
+    }
+
+    /**
+     * @return index of the reply or quote target, before the tweet or with --forward-rate after it
+     */
+    private long referenceOf(SplittableRandom random, long index) {
+        if (random.nextDouble() < forwardRate && index + 1 < tweets) {
+            return index + 1 + random.nextLong(Math.min(window, tweets - index - 1));
+        }
+        return index - 1 - random.nextLong(Math.min(window, index));
+    }
+
+    /**
+     * Append the line of the tweet with given index
+     */
+    void appendLine(StringBuilder sb, long index) {
+        sb.append('{');
+        appendTweet(sb, index);
+        if (isRetweet(index)) {
+            sb.append(", \"retweeted_status\": {");
+            appendTweet(sb, originalOf(index));
+            sb.append('}');
+        }
+        sb.append('}');
+    }
+
+    /**
+     * Write every tweet, each line followed by an empty line, with a limit notice every limitEvery lines
+     * @param out output, closed by the caller
+     * @param limitEvery lines between limit notices, 0 for none
+     */
+    void write(Writer out, int limitEvery) throws IOException {
+        StringBuilder sb = new StringBuilder(4096);
+        long start = System.nanoTime();
+        long lines = 0;
+        for (long index = 0; index < tweets; index++) {
+            if (limitEvery > 0 && ++lines % limitEvery == 0) {
+                out.write("{\"limit\": {\"track\": " + lines + ", \"timestamp_ms\": \"" + START_MILLIS + "\"}}\n\n");
+            }
+            sb.setLength(0);
+            appendLine(sb, index);
+            sb.append("\n\n");
+            out.append(sb);
+            if ((index + 1) % 1000000 == 0) {
+                System.out.println(String.format("%,d tweets written, %,.0f tweets/s", index + 1, (index + 1) * 1e9 / (System.nanoTime() - start)));
+            }
+        }
+    }
+
+    /**
+     * Zipf distribution over 1..n with given exponent, by rejection-inversion (Hormann and Derflinger 1996)
+     * Constant time and memory per sample, so vocabularies of any size can be sampled.
+     */
+    static final class Zipf {
+        private final int n;
+        private final double exponent;
+        private final double hIntegralX1;
+        private final double hIntegralN;
+        private final double s;
+
+        Zipf(int n, double exponent) {
+            if (n < 1 || exponent <= 0) {
+                throw new IllegalArgumentException("Zipf needs n >= 1 and exponent > 0");
+            }
+            this.n = n;
+            this.exponent = exponent;
+            this.hIntegralX1 = hIntegral(1.5) - 1;
+            this.hIntegralN = hIntegral(n + 0.5);
+            this.s = 2 - hIntegralInverse(hIntegral(2.5) - h(2));
+        }
+
+        /**
+         * @return rank in 1..n, rank k with probability proportional to 1 / k^exponent
+         */
+        int sample(SplittableRandom random) {
+            while (true) {
+                double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                double x = hIntegralInverse(u);
+                int k = (int) (x + 0.5);
+                if (k < 1) {
+                    k = 1;
+                } else if (k > n) {
+                    k = n;
+                }
+                if (k - x <= s || u >= hIntegral(k + 0.5) - h(k)) {
+                    return k;
+                }
+            }
+        }
+
+        private double h(double x) {
+            return Math.exp(-exponent * Math.log(x));
+        }
+
+        private double hIntegral(double x) {
+            double logX = Math.log(x);
+            return helper2((1 - exponent) * logX) * logX;
+        }
+
+        private double hIntegralInverse(double x) {
+            double t = x * (1 - exponent);
+            if (t < -1) {
+                t = -1;
+            }
+            return Math.exp(helper1(t) * x);
+        }
+
+        // log(1 + x) / x, stable near 0
+        private static double helper1(double x) {
+            return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1 - x * (0.5 - x * (1.0 / 3 - 0.25 * x));
+        }
+
+        // (exp(x) - 1) / x, stable near 0
+        private static double helper2(double x) {
+            return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+        }
+    }
+
+    /**
+     * @param args command line arguments
+     * @param name option name, ex. "--tweets"
+     * @param defaultValue value if the option is not given
+     * @return value following the option name
+     */
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    public static void main(String[] args) throws IOException {
+        String out = option(args, "--out", null);
+        if (out == null) {
+            System.out.println("Usage: TweetGenerator --out <file.json | file.json.gz> [--tweets 1000000] [--users 100000] "
+                    + "[--hashtags 10000] [--user-skew 1.0] [--hashtag-skew 1.1] [--max-hashtags 3] [--retweet-rate 0.55] "
+                    + "[--reply-rate 0.08] [--quote-rate 0.05] [--forward-rate 0.05] [--window 10000] "
+                    + "[--tweets-per-second 100] [--limit-every 10000] [--seed 1]");
+            return;
+        }
+        TweetGenerator generator = new TweetGenerator(
+                Long.parseLong(option(args, "--seed", "1")),
+                Long.parseLong(option(args, "--tweets", "1000000")),
+                Integer.parseInt(option(args, "--users", "100000")),
+                Integer.parseInt(option(args, "--hashtags", "10000")),
+                Double.parseDouble(option(args, "--user-skew", "1.0")),
+                Double.parseDouble(option(args, "--hashtag-skew", "1.1")),
+                Integer.parseInt(option(args, "--max-hashtags", "3")),
+                Double.parseDouble(option(args, "--retweet-rate", "0.55")),
+                Double.parseDouble(option(args, "--reply-rate", "0.08")),
+                Double.parseDouble(option(args, "--quote-rate", "0.05")),
+                Double.parseDouble(option(args, "--forward-rate", "0.05")),
+                Integer.parseInt(option(args, "--window", "10000")),
+                Integer.parseInt(option(args, "--tweets-per-second", "100")));
+        int limitEvery = Integer.parseInt(option(args, "--limit-every", "10000"));
+
+        OutputStream stream = new BufferedOutputStream(Files.newOutputStream(Paths.get(out)), 1 << 20);
+        if (out.endsWith(".gz")) {
+            stream = new GZIPOutputStream(stream, 1 << 16);
+        }
+        try (Writer writer = new OutputStreamWriter(stream, StandardCharsets.US_ASCII)) {
+            generator.write(writer, limitEvery);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reader of the tweet lines of one Eurovision#.json or Eurovision#.json.gz file
+ * The file is read in large chunks through a channel and split into lines on raw bytes.
+ * Only odd lines hold a tweet (see Main.importDataFromJson), even lines are skipped without being decoded.
+ * Usage:
+ *      while (reader.next()) {
+ *          decoder.decode(reader.buffer(), reader.lineStart(), reader.lineLength(), record);
+ *      }
+ * offset() and lineNumber() after a line are the position to reopen the file at with open(file, offset, lineNumber),
+ * offsets count bytes of the decompressed content for a .gz file.
+ * A reader opened by follow() treats the end of the file as "no line yet": next() returns false until the file grows
+ * and a last line without '\n' is held back as it may still be written, ended() tells the two cases apart.
+ * NOTE: the line bytes are only valid until the next call of next()
+ */
+public class TweetLineReader implements Closeable {
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    private final ReadableByteChannel channel;
+    private byte[] buf = new byte[CHUNK_SIZE];
+    // Bytes buf[start, limit) are read but not consumed yet
+    private int start;
+    private int limit;
+    private boolean eof;
+    // End of a followed file is not the end of input, see follow()
+    private boolean follow;
+    // Offset in the file content of buf[0]
+    private long bufOffset;
+
+    private int lineStart;
+    private int lineLength;
+    private long lineNum;
+
+    private TweetLineReader(ReadableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Open given file, a name ending with ".gz" is decompressed while reading
+     * @param file Eurovision#.json or Eurovision#.json.gz file
+     * @return reader positioned before the first line
+     */
+    public static TweetLineReader open(Path file) throws IOException {
+        return open(file, 0, 0);
+    }
+
+    /**
+     * Open given file at a position returned by offset() and lineNumber() of an earlier reader
+     * A .gz file cannot seek, its content up to offset is decompressed and dropped
+     * @param file Eurovision#.json or Eurovision#.json.gz file
+     * @param offset first byte of the line to continue with
+     * @param lineNumber number of lines before offset
+     * @return reader positioned before the line starting at offset
+     */
+    public static TweetLineReader open(Path file, long offset, long lineNumber) throws IOException {
+        FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ);
+        TweetLineReader reader;
+        if (file.getFileName().toString().endsWith(".gz")) {
+            InputStream in = new GZIPInputStream(Channels.newInputStream(fileChannel), CHUNK_SIZE);
+            for (long skipped = 0; skipped < offset; ) {
+                long n = in.skip(offset - skipped);
+                if (n <= 0) {
+                    in.close();
+                    throw new EOFException(file + " is shorter than offset " + offset);
+                }
+                skipped += n;
+            }
+            reader = new TweetLineReader(Channels.newChannel(in));
+        } else {
+            fileChannel.position(offset);
+            reader = new TweetLineReader(fileChannel);
+        }
+        reader.bufOffset = offset;
+        reader.lineNum = lineNumber;
+        return reader;
+    }
+
+    /**
+     * Open given plain file at a position for following: lines appended later are returned by later calls of next()
+     * @param file Eurovision#.json file that is still written, not compressed
+     * @param offset first byte of the line to continue with
+     * @param lineNumber number of lines before offset
+     * @return reader positioned before the line starting at offset
+     */
+    public static TweetLineReader follow(Path file, long offset, long lineNumber) throws IOException {
+        if (file.getFileName().toString().endsWith(".gz")) {
+            throw new IOException("cannot follow compressed file " + file);
+        }
+        TweetLineReader reader = open(file, offset, lineNumber);
+        reader.follow = true;
+        return reader;
+    }
+
+    /**
+     * Read tweet lines from a stream, ex. standard input or a named pipe, until it is closed
+     * @param in stream in the layout of a Eurovision#.json file
+     * @return reader positioned before the first line
+     */
+    public static TweetLineReader open(InputStream in) {
+        return new TweetLineReader(Channels.newChannel(in));
+    }
+
+    /**
+     * Move to the next tweet line, skipping the separator line in between
+     * @return false at the end of the file, or if a followed file has no complete line yet
+     */
+    public boolean next() throws IOException {
+        while (true) {
+            int end = findLineEnd();
+            if (end < 0) {
+                return false;
+            }
+            lineNum++;
+            int begin = start;
+            int next = end < limit ? end + 1 : end;
+            start = next;
+            if (lineNum % 2 == 0) {
+                continue;
+            }
+            lineStart = begin;
+            lineLength = end - begin;
+            if (lineLength > 0 && buf[end - 1] == '\r') {
+                lineLength--;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Find the end of the line starting at buf[start], reading more of the file when needed
+     * @return index of the '\n' ending the line, limit for a last line without '\n', -1 at end of file
+     */
+    private int findLineEnd() throws IOException {
+        int scanned = start;
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    return i;
+                }
+            }
+            if (eof) {
+                return start < limit ? limit : -1;
+            }
+            scanned = limit - start;
+            if (!fill()) {
+                return -1;
+            }
+            scanned += start;
+        }
+    }
+
+    /**
+     * Move unconsumed bytes to the front of buf, grow it for very long lines, and read the next chunk
+     * @return false if a followed file has no new bytes
+     */
+    private boolean fill() throws IOException {
+        if (start > 0) {
+            System.arraycopy(buf, start, buf, 0, limit - start);
+            bufOffset += start;
+            limit -= start;
+            start = 0;
+        }
+        if (limit == buf.length) {
+            byte[] bigger = new byte[2 * buf.length];
+            System.arraycopy(buf, 0, bigger, 0, limit);
+            buf = bigger;
+        }
+        ByteBuffer target = ByteBuffer.wrap(buf, limit, buf.length - limit);
+        int n = channel.read(target);
+        while (n == 0) {
+            n = channel.read(target);
+        }
+        if (n < 0 && follow) {
+            return false;
+        }
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+        return true;
+    }
+
+    /**
+     * @return true once the input ended, never for a followed file
+     */
+    public boolean ended() {
+        return eof;
+    }
+
+    /**
+     * @return buffer holding the current line
+     */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    /**
+     * @return index of the first byte of the current line in buffer()
+     */
+    public int lineStart() {
+        return lineStart;
+    }
+
+    /**
+     * @return number of bytes of the current line, without line terminator
+     */
+    public int lineLength() {
+        return lineLength;
+    }
+
+    /**
+     * @return 1-based line number of the current line in the file
+     */
+    public long lineNumber() {
+        return lineNum;
+    }
+
+    /**
+     * @return offset in the file content of the first byte after the current line
+     */
+    public long offset() {
+        return bufOffset + start;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
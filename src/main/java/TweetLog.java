@@ -0,0 +1,471 @@
+import org.json.simple.parser.ParseException;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pre-processed tweet log: the fields handleEachTweet reads (TweetRecord) of Eurovision#.json files in a compact
+ * binary file, written once by "TweetLog --input <files> --out <file.tweetlog>" and imported by Main like a JSON file
+ * Layout:
+ *      header:         magic "YASTLOG1"
+ *      records:        varint length, then the record, one per tweet line ({"limit": ...} lines are dropped)
+ *      dictionary:     varint count, then per string varint length and UTF-8 bytes
+ *      trailer:        dictionary offset (long), number of records (long), magic
+ * A record:
+ *      flags (byte):                   HAS_RETWEET, VERIFIED
+ *      id, user_id:                    varint of id + 1, so -1 is one byte
+ *      created_at:                     zig-zag varint of the epoch millis, TweetCodec.INVALID_TIME as is
+ *      in_reply_to, quoted:            varint of id + 1
+ *      place.country:                  varint of dictionary index + 1, 0 for null
+ *      text, screen_name, location:    varint of UTF-8 length + 1, 0 for null, then the bytes
+ *      hashtags:                       varint count, varint dictionary index per hashtag (already normalized)
+ *      retweeted_status:               nested record if HAS_RETWEET, without quoted, hashtags and retweet
+ * Hashtags and countries come from small vocabularies and are written once in the dictionary. It follows the records
+ * because it is only complete at the end; the reader loads it first, so it can start at any record offset.
+ * The reader maps the file in windows of WINDOW bytes, a record crossing the end of a window is read from a new
+ * window starting at the record, so logs larger than 2 GB are read without copying the file into the heap.
+ * NOTE: a log without trailer (writer killed) is refused, write it again.
+ */
+public class TweetLog {
+    static final String EXTENSION = ".tweetlog";
+
+    private static final byte[] MAGIC = "YASTLOG1".getBytes(StandardCharsets.US_ASCII);
+    private static final int TRAILER = 16 + 8;
+    private static final int WINDOW = 1 << 28;
+
+    private static final int HAS_RETWEET = 1;
+    private static final int VERIFIED = 2;
+
+    /**
+     * @param file input file
+     * @return true if the file is read with TweetLog.Reader instead of TweetLineReader
+     */
+    static boolean isTweetLog(Path file) {
+        return file.getFileName().toString().endsWith(EXTENSION);
+    }
+
+    /**
+     * Writer of a new log, records are appended in the order of the input lines
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+        // Record being encoded, its length is only known at the end
+        private byte[] record = new byte[4096];
+        private int size;
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> dictionary = new ArrayList<>();
+        private long position;
+        private long records;
+
+        /**
+         * @param file log file, replaced if it exists
+         */
+        Writer(Path file) throws IOException {
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer.put(MAGIC);
+            position = MAGIC.length;
+        }
+
+        /**
+         * Append one decoded tweet line, a {"limit": ...} line is skipped
+         * @param tweet decoded tweet
+         */
+        void append(TweetRecord tweet) throws IOException {
+            if (tweet.limit) {
+                return;
+            }
+            size = 0;
+            putRecord(tweet, false);
+            if (buffer.remaining() < 10 + size) {
+                drain();
+            }
+            putVarint(buffer, size);
+            if (size > buffer.remaining()) {
+                drain();
+                channel.write(ByteBuffer.wrap(record, 0, size));
+            } else {
+                buffer.put(record, 0, size);
+            }
+            position += varintSize(size) + size;
+            records++;
+        }
+
+        private void putRecord(TweetRecord tweet, boolean nested) {
+            int flags = (tweet.hasRetweet && !nested ? HAS_RETWEET : 0) | (tweet.userVerified ? VERIFIED : 0);
+            ensure(1);
+            record[size++] = (byte) flags;
+            putLong(tweet.id + 1);
+            putLong(tweet.userId + 1);
+            putLong(tweet.createdAt << 1 ^ tweet.createdAt >> 63);
+            putLong(tweet.inReplyToStatusId + 1);
+            putLong(nested ? 0 : tweet.quotedStatusId + 1);
+            putLong(tweet.placeCountry == null ? 0 : id(tweet.placeCountry) + 1);
+            putString(tweet.text);
+            putString(tweet.userScreenName);
+            putString(tweet.userLocation);
+            if (nested) {
+                return;
+            }
+            putLong(tweet.hashtags.size());
+            for (String hashtag : tweet.hashtags) {
+                putLong(id(hashtag));
+            }
+            if (tweet.hasRetweet) {
+                putRecord(tweet.retweet, true);
+            }
+        }
+
+        private int id(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = dictionary.size();
+                ids.put(value, id);
+                dictionary.add(value);
+            }
+            return id;
+        }
+
+        private void ensure(int bytes) {
+            if (size + bytes > record.length) {
+                record = Arrays.copyOf(record, Math.max(2 * record.length, size + bytes));
+            }
+        }
+
+        private void putLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                record[size++] = (byte) (value & 0x7F | 0x80);
+                value >>>= 7;
+            }
+            record[size++] = (byte) value;
+        }
+
+        private void putString(String value) {
+            if (value == null) {
+                putLong(0);
+                return;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            putLong(bytes.length + 1);
+            ensure(bytes.length);
+            System.arraycopy(bytes, 0, record, size, bytes.length);
+            size += bytes.length;
+        }
+
+        private void drain() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        long records() {
+            return records;
+        }
+
+        /**
+         * Write the dictionary and the trailer, the log is readable from then on
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                long dictionaryOffset = position;
+                drain();
+                putVarint(buffer, dictionary.size());
+                for (String value : dictionary) {
+                    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                    if (buffer.remaining() < 10 + bytes.length) {
+                        drain();
+                    }
+                    putVarint(buffer, bytes.length);
+                    buffer.put(bytes);
+                }
+                if (buffer.remaining() < TRAILER) {
+                    drain();
+                }
+                buffer.putLong(dictionaryOffset).putLong(records).put(MAGIC);
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    private static void putVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) (value & 0x7F | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static int varintSize(long value) {
+        int bytes = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            bytes++;
+        }
+        return bytes;
+    }
+
+    private static long getVarint(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    /**
+     * Memory-mapped reader of a log
+     * Usage:
+     *      while (reader.next(record)) {
+     *          ...
+     *      }
+     * offset() and recordNumber() after a record are the position to reopen the log at with open(file, offset,
+     * recordNumber), like TweetLineReader.offset() and lineNumber() for an ImportCheckpoint.
+     */
+    static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final String[] dictionary;
+        // Records are in [MAGIC.length, end)
+        private final long end;
+        private final long records;
+        private final TweetCodec codec = new TweetCodec();
+        private byte[] bytes = new byte[4096];
+        private ByteBuffer window;
+        // File offset of window position 0
+        private long windowStart;
+        private long offset;
+        private long recordNumber;
+
+        private Reader(FileChannel channel, long offset, long recordNumber) throws IOException {
+            this.channel = channel;
+            long size = channel.size();
+            ByteBuffer trailer = channel.map(FileChannel.MapMode.READ_ONLY, Math.max(0, size - TRAILER),
+                    Math.min(size, TRAILER)).order(ByteOrder.LITTLE_ENDIAN);
+            if (size < MAGIC.length + TRAILER || !hasMagic(trailer, 16)) {
+                throw new IOException("not a complete tweet log");
+            }
+            end = trailer.getLong(0);
+            records = trailer.getLong(8);
+            ByteBuffer tail = channel.map(FileChannel.MapMode.READ_ONLY, end, size - TRAILER - end);
+            dictionary = new String[(int) getVarint(tail)];
+            for (int i = 0; i < dictionary.length; i++) {
+                int length = (int) getVarint(tail);
+                dictionary[i] = new String(bytes(tail, length), 0, length, StandardCharsets.UTF_8);
+            }
+            this.offset = Math.max(offset, MAGIC.length);
+            this.recordNumber = recordNumber;
+        }
+
+        private static boolean hasMagic(ByteBuffer buffer, int index) {
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (buffer.get(index + i) != MAGIC[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param file log written by TweetLog.Writer
+         * @return reader positioned before the first record
+         */
+        static Reader open(Path file) throws IOException {
+            return open(file, 0, 0);
+        }
+
+        /**
+         * Open given log at a position returned by offset() and recordNumber() of an earlier reader
+         * @param file log written by TweetLog.Writer
+         * @param offset first byte of the record to continue with, 0 for the first record
+         * @param recordNumber number of records before offset
+         * @return reader positioned before the record starting at offset
+         */
+        static Reader open(Path file, long offset, long recordNumber) throws IOException {
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+            try {
+                return new Reader(channel, offset, recordNumber);
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        }
+
+        /**
+         * Decode the next record
+         * @param tweet record filled with the fields of the next tweet
+         * @return false at the end of the log
+         */
+        boolean next(TweetRecord tweet) throws IOException {
+            if (offset >= end) {
+                return false;
+            }
+            map(offset, Math.min(10, end - offset));
+            int length = (int) getVarint(window);
+            long recordStart = windowStart + window.position();
+            map(recordStart, length);
+            readRecord(tweet, false);
+            offset = recordStart + length;
+            recordNumber++;
+            return true;
+        }
+
+        /**
+         * Position window so that bytes [from, from + length) are mapped, window.position() at from
+         */
+        private void map(long from, long length) throws IOException {
+            if (window == null || from < windowStart || from + length > windowStart + window.limit()) {
+                windowStart = from;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(end - from, Math.max(WINDOW, length)));
+            }
+            window.position((int) (from - windowStart));
+        }
+
+        private void readRecord(TweetRecord tweet, boolean nested) {
+            tweet.reset();
+            int flags = window.get();
+            tweet.id = getVarint(window) - 1;
+            tweet.userId = getVarint(window) - 1;
+            long createdAt = getVarint(window);
+            tweet.createdAt = createdAt >>> 1 ^ -(createdAt & 1);
+            tweet.inReplyToStatusId = getVarint(window) - 1;
+            tweet.quotedStatusId = getVarint(window) - 1;
+            int country = (int) getVarint(window);
+            tweet.placeCountry = country == 0 ? null : dictionary[country - 1];
+            tweet.text = getString(false);
+            tweet.userScreenName = getString(false);
+            tweet.userLocation = getString(true);
+            tweet.userVerified = (flags & VERIFIED) != 0;
+            if (nested) {
+                return;
+            }
+            int hashtags = (int) getVarint(window);
+            for (int i = 0; i < hashtags; i++) {
+                tweet.hashtags.add(dictionary[(int) getVarint(window)]);
+            }
+            if ((flags & HAS_RETWEET) != 0) {
+                tweet.hasRetweet = true;
+                readRecord(tweet.retweetRecord(), true);
+            }
+        }
+
+        private String getString(boolean intern) {
+            int length = (int) getVarint(window) - 1;
+            if (length < 0) {
+                return null;
+            }
+            byte[] b = bytes(window, length);
+            return intern ? codec.intern(b, 0, length) : new String(b, 0, length, StandardCharsets.UTF_8);
+        }
+
+        private byte[] bytes(ByteBuffer buffer, int length) {
+            if (bytes.length < length) {
+                bytes = new byte[Math.max(2 * bytes.length, length)];
+            }
+            buffer.get(bytes, 0, length);
+            return bytes;
+        }
+
+        /**
+         * @return first byte after the last record read
+         */
+        long offset() {
+            return offset;
+        }
+
+        /**
+         * @return number of records before offset()
+         */
+        long recordNumber() {
+            return recordNumber;
+        }
+
+        /**
+         * @return number of records of the whole log
+         */
+        long records() {
+            return records;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Decode every tweet line of the input files into one log
+     * @param files Eurovision#.json or Eurovision#.json.gz files, in order
+     * @param out log file, replaced if it exists
+     * @return number of records written
+     */
+    static long write(List<Path> files, Path out) throws IOException, ParseException {
+        TweetDecoder decoder = new TweetDecoder();
+        TweetRecord tweet = new TweetRecord();
+        try (Writer writer = new Writer(out)) {
+            for (Path file : files) {
+                try (TweetLineReader reader = TweetLineReader.open(file)) {
+                    while (reader.next()) {
+                        decoder.decode(reader.buffer(), reader.lineStart(), reader.lineLength(), tweet);
+                        writer.append(tweet);
+                    }
+                }
+            }
+            return writer.records();
+        }
+    }
+
+    /**
+     * @param args command line arguments
+     * @param name option name, ex. "--out"
+     * @param defaultValue value if the option is not given
+     * @return value following the option name
+     */
+    private static String option(String[] args, String name, String defaultValue) {
+        for (int i = 0; i + 1 < args.length; i++) {
+            if (args[i].equals(name)) {
+                return args[i + 1];
+            }
+        }
+        return defaultValue;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String input = option(args, "--input", null);
+        String out = option(args, "--out", null);
+        if (input == null || out == null || !out.endsWith(EXTENSION)) {
+            System.out.println("Usage: TweetLog --input <file | directory | glob> --out <file" + EXTENSION + ">");
+            return;
+        }
+        List<Path> files = Main.resolveInputFiles(input);
+        long inputBytes = 0;
+        for (Path file : files) {
+            inputBytes += Files.size(file);
+        }
+        long start = System.currentTimeMillis();
+        long records = write(files, Paths.get(out));
+        System.out.printf("Wrote %,d tweets of %,d input bytes to %,d bytes in %d ms%n", records, inputBytes,
+                Files.size(Paths.get(out)), System.currentTimeMillis() - start);
+    }
+}
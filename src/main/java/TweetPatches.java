@@ -0,0 +1,74 @@
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Deferred reply_id / quote_id updates of Tweet vertices that were already in the database (placeholders created for
+ * a retweet, replayed lines), instead of a SELECT and an UPDATE per tweet inside the batch
+ * The patches of a batch are coalesced by tweet_id (the last value wins) and LISTENER writes them in the batch
+ * transaction, one UPDATE per patched tweet and property, so they are committed with their "reply" and "quote" edges
+ * and the checkpoint. A statement only writes a record whose value differs.
+ */
+public class TweetPatches {
+    private static final int REPLY = 0;
+    private static final int QUOTE = 1;
+
+    // tweet_id -> {reply_id, quote_id}, -1 for not patched
+    private static final ThreadLocal<Map<Long, long[]>> pending = ThreadLocal.withInitial(HashMap::new);
+
+    private static void put(Map<Long, long[]> patches, long tweetId, int property, long value) {
+        patches.computeIfAbsent(tweetId, k -> new long[]{-1, -1})[property] = value;
+    }
+
+    /**
+     * Set reply_id of an existing tweet when the current transaction commits
+     * @param tweetId tweet_id of the Tweet vertex
+     * @param replyId replied tweet ID
+     */
+    static void reply(long tweetId, long replyId) {
+        put(pending.get(), tweetId, REPLY, replyId);
+    }
+
+    /**
+     * Set quote_id of an existing tweet when the current transaction commits
+     * @param tweetId tweet_id of the Tweet vertex
+     * @param quoteId quoted tweet ID
+     */
+    static void quote(long tweetId, long quoteId) {
+        put(pending.get(), tweetId, QUOTE, quoteId);
+    }
+
+    /**
+     * Writes the patches of this thread in its batch transaction
+     */
+    static final TransactionListeners.Listener LISTENER = new TransactionListeners.Listener() {
+        @Override
+        public void beforeCommit(TransactionListeners.StatementWriter writer) {
+            Map<Long, long[]> patches = pending.get();
+            if (patches.isEmpty()) {
+                return;
+            }
+            long start = System.nanoTime();
+            for (Map.Entry<Long, long[]> patch : patches.entrySet()) {
+                long replyId = patch.getValue()[REPLY];
+                long quoteId = patch.getValue()[QUOTE];
+                if (replyId != -1) {
+                    writer.add(Statements.UPDATE_REPLY_ID, replyId, patch.getKey(), replyId);
+                }
+                if (quoteId != -1) {
+                    writer.add(Statements.UPDATE_QUOTE_ID, quoteId, patch.getKey(), quoteId);
+                }
+            }
+            IngestMetrics.record(IngestMetrics.Stage.PATCH, start);
+        }
+
+        @Override
+        public void committed() {
+            pending.get().clear();
+        }
+
+        @Override
+        public void discarded() {
+            pending.get().clear();
+        }
+    };
+}
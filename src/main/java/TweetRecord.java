@@ -0,0 +1,67 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Mutable holder of the fields handleEachTweet reads from one line of the Kaggle data set
+ * Fields:
+ *      limit:                  the line is a {"limit": ...} notice instead of a tweet
+ *      id:                     tweet ID
+ *      createdAt:              "created_at" as epoch millis, TweetCodec.INVALID_TIME if malformed
+ *      text:                   text of tweet
+ *      inReplyToStatusId:      "in_reply_to_status_id", -1 if null or missing
+ *      quotedStatusId:         "quoted_status_id", -1 if null or missing
+ *      placeCountry:           "place.country", null if no place, interned
+ *      userId, userScreenName, userLocation, userVerified:     "user" object, userLocation is interned
+ *      hashtags:               "entities.hashtags[].text", normalized (accents removed)
+ *      retweet:                "retweeted_status", only valid if hasRetweet
+ *
+ * A record is reused for many lines, TweetDecoder resets it before filling it again.
+ */
+public class TweetRecord {
+    boolean limit;
+    long id;
+    long createdAt;
+    String text;
+    long inReplyToStatusId;
+    long quotedStatusId;
+    String placeCountry;
+
+    long userId;
+    String userScreenName;
+    String userLocation;
+    boolean userVerified;
+
+    final List<String> hashtags = new ArrayList<>();
+
+    boolean hasRetweet;
+    TweetRecord retweet;
+
+    /**
+     * Clear every field to the value of a missing JSON field
+     */
+    void reset() {
+        limit = false;
+        id = -1;
+        createdAt = TweetCodec.INVALID_TIME;
+        text = null;
+        inReplyToStatusId = -1;
+        quotedStatusId = -1;
+        placeCountry = null;
+        userId = -1;
+        userScreenName = null;
+        userLocation = null;
+        userVerified = false;
+        hashtags.clear();
+        hasRetweet = false;
+    }
+
+    /**
+     * @return nested record for "retweeted_status", created on first use and reused afterwards
+     */
+    TweetRecord retweetRecord() {
+        if (retweet == null) {
+            retweet = new TweetRecord();
+        }
+        return retweet;
+    }
+}